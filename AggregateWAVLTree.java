@@ -0,0 +1,131 @@
+/**
+ *
+ * AggregateWAVLTree
+ *
+ * A WAVL Tree that keeps an aggregate of every subtree, like the size, for a
+ * user supplied monoid: a sum, a count of matching infos, a maximum and so on.
+ * The aggregates are recomputed wherever the sizes are, so insert and delete
+ * stay O(log n), and aggregate(lo, hi) combines O(log n) of them.
+ *
+ * The tree is a WAVLTree, but split, join and the other operations that build
+ * new trees return plain WAVLTrees without aggregates.
+ *
+ */
+
+public class AggregateWAVLTree<A> extends WAVLTree {
+	private final Monoid<A> _monoid;
+
+	public AggregateWAVLTree(Monoid<A> monoid) {
+		super(true);
+		this._monoid = monoid;
+	}
+
+	/**
+	 * an associative combine with an identity, and the value of a single item.
+	 * combine is called with its arguments in key order, so it does not have to
+	 * be commutative
+	 */
+	public interface Monoid<A> {
+		A identity();
+
+		A of(int key, String value);
+
+		A combine(A left, A right);
+	}
+
+	/**
+	 * a node with the aggregate of its subtree
+	 */
+
+	static class AggregateNode extends WAVLNode {
+		private Object _aggregate;
+
+		AggregateNode(int key, String value, WAVLNode parent) {
+			super(key, value, parent);
+		}
+	}
+
+	@Override
+	WAVLNode createNode(int key, String value, WAVLNode parent) {
+		AggregateNode node = new AggregateNode(key, value, parent);
+		node._aggregate = this._monoid.of(key, value);
+		return node;
+	}
+
+	@Override
+	void updateAugmentation(WAVLNode node) {
+		A aggregate = this._monoid.of(node.getKey(), node.getValue());
+		if (node.getLeft() != null)
+			aggregate = this._monoid.combine(aggregateOf(node.getLeft()), aggregate);
+		if (node.getRight() != null)
+			aggregate = this._monoid.combine(aggregate, aggregateOf(node.getRight()));
+		((AggregateNode) node)._aggregate = aggregate;
+	}
+
+	/**
+	 * returns the aggregate of the subtree of node, or the identity for an
+	 * external node
+	 */
+
+	@SuppressWarnings("unchecked")
+	private A aggregateOf(WAVLNode node) {
+		return node == null ? this._monoid.identity() : (A) ((AggregateNode) node)._aggregate;
+	}
+
+	/**
+	 * public A aggregate()
+	 *
+	 * Returns the aggregate of all items in the tree in O(1), or the identity if
+	 * the tree is empty.
+	 */
+	public A aggregate() {
+		return empty() ? this._monoid.identity() : aggregateOf(getRoot());
+	}
+
+	/**
+	 * public A aggregate(int lo, int hi)
+	 *
+	 * Returns the aggregate of the items with lo <= key < hi in O(log n), or the
+	 * identity if there are none. descends to the highest node in the range and
+	 * from there along both borders of the range, taking the aggregates of the
+	 * subtrees that lie between the borders as they are.
+	 */
+	public A aggregate(int lo, int hi) {
+		WAVLNode split = empty() ? null : getRoot();
+		while (split != null && (split.getKey() < lo || split.getKey() >= hi))
+			split = split.getKey() < lo ? split.getRight() : split.getLeft();
+		if (split == null || lo >= hi)
+			return this._monoid.identity();
+
+		// the items >= lo in the left subtree, each step adds items before the
+		// ones found so far
+		A left = this._monoid.identity();
+		for (WAVLNode node = split.getLeft(); node != null;) {
+			if (node.getKey() >= lo) {
+				A part = this._monoid.combine(this._monoid.of(node.getKey(), node.getValue()),
+						aggregateOf(node.getRight()));
+				left = this._monoid.combine(part, left);
+				node = node.getLeft();
+			} else {
+				node = node.getRight();
+			}
+		}
+
+		// the items < hi in the right subtree, each step adds items after the ones
+		// found so far
+		A right = this._monoid.identity();
+		for (WAVLNode node = split.getRight(); node != null;) {
+			if (node.getKey() < hi) {
+				A part = this._monoid.combine(aggregateOf(node.getLeft()),
+						this._monoid.of(node.getKey(), node.getValue()));
+				right = this._monoid.combine(right, part);
+				node = node.getRight();
+			} else {
+				node = node.getLeft();
+			}
+		}
+
+		A middle = this._monoid.of(split.getKey(), split.getValue());
+		return this._monoid.combine(this._monoid.combine(left, middle), right);
+	}
+}
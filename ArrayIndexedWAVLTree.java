@@ -0,0 +1,167 @@
+import java.util.Arrays;
+
+/**
+ *
+ * ArrayIndexedWAVLTree
+ *
+ * Keeps the links, rank differences and sizes of an IndexedWAVLTree in
+ * parallel int arrays. Subclasses add arrays of their key and value types,
+ * which grow together with the ones here. Index 0 is the external node,
+ * removed nodes are recycled through a free list.
+ *
+ */
+
+public abstract class ArrayIndexedWAVLTree extends IndexedWAVLTree {
+	static final int INITIAL_CAPACITY = 16;
+
+	private int[] _left;
+	private int[] _right;
+	private int[] _parent;
+	private int[] _diffs;
+	private int[] _size;
+
+	private int _root;
+	private int _freeList;
+	private int _nextUnused;
+
+	/**
+	 * creates an empty tree with room for capacity keys before the arrays have to
+	 * grow. subclasses allocate their entry arrays with length capacity() + 1
+	 */
+
+	protected ArrayIndexedWAVLTree(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("negative capacity: " + capacity);
+
+		int length = capacity + 1;
+		this._left = new int[length];
+		this._right = new int[length];
+		this._parent = new int[length];
+		this._diffs = new int[length];
+		this._size = new int[length];
+		this._diffs[EXTERNAL] = packDiffs(1, 1);
+
+		this._root = EXTERNAL;
+		this._freeList = EXTERNAL;
+		this._nextUnused = 1;
+	}
+
+	/**
+	 * returns the number of keys the arrays hold before they have to grow
+	 */
+
+	int capacity() {
+		return this._left.length - 1;
+	}
+
+	/**
+	 * grows the key and value arrays of the subclass to length
+	 */
+
+	abstract void growEntries(int length);
+
+	/**
+	 * drops the references a removed node holds, so they can be collected
+	 */
+
+	void clearEntry(int node) {
+	}
+
+	@Override
+	int getRootNode() {
+		return this._root;
+	}
+
+	@Override
+	void setRootNode(int node) {
+		this._root = node;
+	}
+
+	@Override
+	int getLeft(int node) {
+		return this._left[node];
+	}
+
+	@Override
+	void setLeft(int node, int left) {
+		this._left[node] = left;
+	}
+
+	@Override
+	int getRight(int node) {
+		return this._right[node];
+	}
+
+	@Override
+	void setRight(int node, int right) {
+		this._right[node] = right;
+	}
+
+	@Override
+	int getParent(int node) {
+		return this._parent[node];
+	}
+
+	@Override
+	void setParent(int node, int parent) {
+		this._parent[node] = parent;
+	}
+
+	@Override
+	int getDiffs(int node) {
+		return this._diffs[node];
+	}
+
+	@Override
+	void setDiffs(int node, int diffs) {
+		this._diffs[node] = diffs;
+	}
+
+	@Override
+	int getSize(int node) {
+		return this._size[node];
+	}
+
+	@Override
+	void setSize(int node, int size) {
+		this._size[node] = size;
+	}
+
+	/**
+	 * takes a node from the free list, or the next unused slot
+	 */
+
+	@Override
+	int allocateNode() {
+		int node = this._freeList;
+		if (node != EXTERNAL) {
+			this._freeList = this._left[node];
+			return node;
+		}
+
+		if (this._nextUnused == this._left.length)
+			grow();
+		return this._nextUnused++;
+	}
+
+	/**
+	 * returns a removed node to the free list, its left slot links the list
+	 */
+
+	@Override
+	void releaseNode(int node) {
+		clearEntry(node);
+		this._left[node] = this._freeList;
+		this._freeList = node;
+	}
+
+	private void grow() {
+		int length = Math.max(INITIAL_CAPACITY, this._left.length + (this._left.length >> 1));
+		this._left = Arrays.copyOf(this._left, length);
+		this._right = Arrays.copyOf(this._right, length);
+		this._parent = Arrays.copyOf(this._parent, length);
+		this._diffs = Arrays.copyOf(this._diffs, length);
+		this._size = Arrays.copyOf(this._size, length);
+		growEntries(length);
+	}
+}
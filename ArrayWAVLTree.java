@@ -0,0 +1,159 @@
+import java.util.Arrays;
+
+/**
+ *
+ * ArrayWAVLTree
+ *
+ * An implementation of a WAVL Tree with the same interface as WAVLTree, in
+ * which nodes are int indices into parallel primitive arrays instead of
+ * WAVLNode objects. Index 0 is the external node, removed nodes are recycled
+ * through a free list.
+ *
+ */
+
+public class ArrayWAVLTree extends ArrayIndexedWAVLTree {
+	private int[] _keys;
+	private String[] _values;
+
+	public ArrayWAVLTree() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * creates an empty tree with room for capacity keys before the arrays have to
+	 * grow
+	 */
+
+	public ArrayWAVLTree(int capacity) {
+		super(capacity);
+		this._keys = new int[capacity + 1];
+		this._values = new String[capacity + 1];
+	}
+
+	@Override
+	void growEntries(int length) {
+		this._keys = Arrays.copyOf(this._keys, length);
+		this._values = Arrays.copyOf(this._values, length);
+	}
+
+	@Override
+	void clearEntry(int node) {
+		this._values[node] = null;
+	}
+
+	@Override
+	int compareKeys(int node, int other) {
+		return Integer.compare(this._keys[node], this._keys[other]);
+	}
+
+	@Override
+	void copyEntry(int from, int to) {
+		this._keys[to] = this._keys[from];
+		this._values[to] = this._values[from];
+	}
+
+	private final PrimitiveKeys _primitiveKeys = new PrimitiveKeys() {
+		@Override
+		long get(int node) {
+			return ArrayWAVLTree.this._keys[node];
+		}
+
+		@Override
+		void set(int node, long key) {
+			ArrayWAVLTree.this._keys[node] = (int) key;
+		}
+	};
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree otherwise,
+	 * returns null
+	 */
+	public String search(int k) {
+		return this._values[getNodeByPrimitiveKey(this._primitiveKeys, k)];
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the WAVL tree. the tree must remain
+	 * valid (keep its invariants). returns the number of rebalancing operations, or
+	 * 0 if no rebalancing operations were necessary. returns -1 if an item with key
+	 * k already exists in the tree.
+	 */
+	public int insert(int k, String i) {
+		int node = insertPrimitiveKey(this._primitiveKeys, k);
+		if (node == EXTERNAL)
+			return -1;
+		this._values[node] = i;
+		return rebalanceInsertedLeaf(node);
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the binary tree, if it is there; the tree
+	 * must remain valid (keep its invariants). returns the number of rebalancing
+	 * operations, or 0 if no rebalancing operations were needed. returns -1 if an
+	 * item with key k was not found in the tree.
+	 */
+	public int delete(int k) {
+		return deletePrimitiveKey(this._primitiveKeys, k);
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree, or null if
+	 * the tree is empty
+	 */
+	public String min() {
+		return this._values[getMinNode()];
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree, or null if the
+	 * tree is empty
+	 */
+	public String max() {
+		return this._values[getMaxNode()];
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree, or an empty array
+	 * if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		return intKeysToArray(this._primitiveKeys);
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree, sorted by their
+	 * respective keys, or an empty array if the tree is empty.
+	 */
+	public String[] infoToArray() {
+		String[] arr = new String[size()];
+		int index = 0;
+		for (int node = getMinNode(); node != EXTERNAL; node = successor(node))
+			arr[index++] = this._values[node];
+		return arr;
+	}
+
+	/**
+	 * public int select(int i)
+	 *
+	 * Returns the value of the i'th smallest key (return null if tree is empty or
+	 * i is out of range). select(1) returns the value of the node with minimal key
+	 *
+	 */
+	public String select(int i) {
+		return this._values[selectNode(i)];
+	}
+}
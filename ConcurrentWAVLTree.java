@@ -0,0 +1,365 @@
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ *
+ * ConcurrentWAVLTree
+ *
+ * A thread safe WAVL Tree with the same interface as WAVLTree. Readers do not
+ * lock: search, select, min and max first walk the tree optimistically and
+ * then validate a StampedLock stamp, falling back to a read lock only if a
+ * writer ran in between. Writers take the write lock, so a rebalance is never
+ * seen half done by a reader that returns a result.
+ *
+ */
+
+public class ConcurrentWAVLTree {
+	/**
+	 * an optimistic walk gives up after this many steps. a WAVL tree of at most
+	 * 2^31 keys is less than 62 levels high, so only a walk through a tree that
+	 * is being changed can take longer
+	 */
+	private static final int MAX_OPTIMISTIC_STEPS = 64;
+
+	/**
+	 * returned by an optimistic walk that gave up
+	 */
+	private static final WAVLTree.WAVLNode RETRY = new WAVLTree.WAVLNode(0, null, null);
+
+	private final WAVLTree _tree;
+	private final StampedLock _lock;
+
+	public ConcurrentWAVLTree() {
+		this._tree = new WAVLTree();
+		this._lock = new StampedLock();
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 *
+	 */
+	public boolean empty() {
+		return size() == 0;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree otherwise,
+	 * returns null
+	 */
+	public String search(int k) {
+		long stamp = this._lock.tryOptimisticRead();
+		if (stamp != 0) {
+			WAVLTree.WAVLNode node = optimisticSearch(k);
+			String value = node == null ? null : node.getValue();
+			if (node != RETRY && this._lock.validate(stamp))
+				return value;
+		}
+
+		stamp = this._lock.readLock();
+		try {
+			return this._tree.search(k);
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * walks down to key k without locking. returns the node, null if k is not in
+	 * the tree, or RETRY if the walk saw a tree in the middle of a change
+	 */
+
+	private WAVLTree.WAVLNode optimisticSearch(int k) {
+		try {
+			WAVLTree.WAVLNode node = this._tree.getRoot();
+			for (int steps = 0; steps < MAX_OPTIMISTIC_STEPS; steps++) {
+				if (node == null || !node.isInnerNode())
+					return null;
+
+				int key = node.getKey();
+				if (key == k)
+					return node;
+				node = key > k ? node.getLeft() : node.getRight();
+			}
+			return RETRY;
+		} catch (RuntimeException e) {
+			return RETRY;
+		}
+	}
+
+	/**
+	 * public String select(int i)
+	 *
+	 * Returns the info of the i'th smallest key in the tree, or null if there is
+	 * no such key
+	 */
+	public String select(int i) {
+		long stamp = this._lock.tryOptimisticRead();
+		if (stamp != 0) {
+			WAVLTree.WAVLNode node = optimisticSelect(i - 1);
+			String value = node == null ? null : node.getValue();
+			if (node != RETRY && this._lock.validate(stamp))
+				return value;
+		}
+
+		stamp = this._lock.readLock();
+		try {
+			return this._tree.select(i);
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * walks down to the 0-based in-order index i using the subtree sizes without
+	 * locking. returns the node, null if there is no such index, or RETRY if the
+	 * walk saw a tree in the middle of a change
+	 */
+
+	private WAVLTree.WAVLNode optimisticSelect(int i) {
+		try {
+			WAVLTree.WAVLNode node = this._tree.getRoot();
+			if (i < 0 || node == null || i >= node.getSubtreeSize())
+				return null;
+
+			for (int steps = 0; steps < MAX_OPTIMISTIC_STEPS; steps++) {
+				if (node == null)
+					return RETRY;
+
+				WAVLTree.WAVLNode left = node.getLeft();
+				int leftSize = left == null ? 0 : left.getSubtreeSize();
+				if (i == leftSize)
+					return node;
+				if (i < leftSize)
+					node = left;
+				else {
+					i = i - leftSize - 1;
+					node = node.getRight();
+				}
+			}
+			return RETRY;
+		} catch (RuntimeException e) {
+			return RETRY;
+		}
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree, or null if
+	 * the tree is empty
+	 */
+	public String min() {
+		long stamp = this._lock.tryOptimisticRead();
+		if (stamp != 0) {
+			String value = this._tree.min();
+			if (this._lock.validate(stamp))
+				return value;
+		}
+
+		stamp = this._lock.readLock();
+		try {
+			return this._tree.min();
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree, or null if the
+	 * tree is empty
+	 */
+	public String max() {
+		long stamp = this._lock.tryOptimisticRead();
+		if (stamp != 0) {
+			String value = this._tree.max();
+			if (this._lock.validate(stamp))
+				return value;
+		}
+
+		stamp = this._lock.readLock();
+		try {
+			return this._tree.max();
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public String successor(int k)
+	 *
+	 * returns the info of the item with the smallest key larger than k, or null if
+	 * there is none, taken under the read lock
+	 */
+	public String successor(int k) {
+		long stamp = this._lock.readLock();
+		try {
+			return this._tree.successor(k);
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public String predecessor(int k)
+	 *
+	 * returns the info of the item with the largest key smaller than k, or null if
+	 * there is none, taken under the read lock
+	 */
+	public String predecessor(int k) {
+		long stamp = this._lock.readLock();
+		try {
+			return this._tree.predecessor(k);
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the tree.
+	 *
+	 */
+	public int size() {
+		long stamp = this._lock.tryOptimisticRead();
+		if (stamp != 0) {
+			int size = this._tree.size();
+			if (this._lock.validate(stamp))
+				return size;
+		}
+
+		stamp = this._lock.readLock();
+		try {
+			return this._tree.size();
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the tree under the write lock.
+	 * returns the number of rebalancing operations, or -1 if an item with key k
+	 * already exists in the tree.
+	 */
+	public int insert(int k, String i) {
+		long stamp = this._lock.writeLock();
+		try {
+			return this._tree.insert(k, i);
+		} finally {
+			this._lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the tree under the write lock. returns the
+	 * number of rebalancing operations, or -1 if an item with key k was not found
+	 * in the tree.
+	 */
+	public int delete(int k) {
+		long stamp = this._lock.writeLock();
+		try {
+			return this._tree.delete(k);
+		} finally {
+			this._lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * public int[] insertAll(int[] keys, String[] values)
+	 *
+	 * inserts a batch like WAVLTree.insertAll, holding the write lock once for the
+	 * whole batch
+	 */
+	public int[] insertAll(int[] keys, String[] values) {
+		long stamp = this._lock.writeLock();
+		try {
+			return this._tree.insertAll(keys, values);
+		} finally {
+			this._lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * public int[] deleteAll(int[] keys)
+	 *
+	 * deletes a batch like WAVLTree.deleteAll, holding the write lock once for the
+	 * whole batch
+	 */
+	public int[] deleteAll(int[] keys) {
+		long stamp = this._lock.writeLock();
+		try {
+			return this._tree.deleteAll(keys);
+		} finally {
+			this._lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree, taken under the
+	 * read lock
+	 */
+	public int[] keysToArray() {
+		long stamp = this._lock.readLock();
+		try {
+			return this._tree.keysToArray();
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree, sorted by their
+	 * respective keys, taken under the read lock
+	 */
+	public String[] infoToArray() {
+		long stamp = this._lock.readLock();
+		try {
+			return this._tree.infoToArray();
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public void setStats(WAVLTreeStats stats)
+	 *
+	 * starts recording the writes into stats like WAVLTree.setStats, or stops
+	 * recording if stats is null. the stats are swapped under the write lock, so
+	 * every later write sees them
+	 */
+	public void setStats(WAVLTreeStats stats) {
+		long stamp = this._lock.writeLock();
+		try {
+			this._tree.setStats(stats);
+		} finally {
+			this._lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * public WAVLTreeStats getStats()
+	 *
+	 * returns the stats the writes are recorded into, or null
+	 */
+	public WAVLTreeStats getStats() {
+		long stamp = this._lock.readLock();
+		try {
+			return this._tree.getStats();
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+}
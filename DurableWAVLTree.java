@@ -0,0 +1,560 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.StampedLock;
+import java.util.zip.CRC32C;
+
+/**
+ *
+ * DurableWAVLTree
+ *
+ * A thread safe WAVL Tree that survives a crash. Every insert and delete that
+ * changes the tree is appended to a write-ahead log in its directory, and the
+ * tree is restored on open from the latest snapshot plus the log records
+ * written after it. A checkpoint writes a new snapshot and truncates the log.
+ *
+ * Writers that need their record on disk share fsyncs: one of them writes and
+ * forces everything appended so far while the others append behind it and
+ * are forced together by the next one (group commit). With a sync batch of
+ * n > 1 only every n'th record waits for the disk, so a crash loses at most
+ * the last n - 1 changes unless sync is called.
+ *
+ */
+
+public class DurableWAVLTree implements Closeable {
+	/**
+	 * fsync after every change
+	 */
+	public static final int SYNC_EVERY_CHANGE = 1;
+
+	/**
+	 * a checkpoint runs once the log is larger than this many bytes, unless the
+	 * tree is opened with another limit
+	 */
+	public static final long DEFAULT_CHECKPOINT_BYTES = 64L << 20;
+
+	private static final String SNAPSHOT = "snapshot";
+	private static final String SNAPSHOT_TMP = "snapshot.tmp";
+	private static final String LOG = "wal";
+
+	private static final byte INSERT = 1;
+	private static final byte DELETE = 2;
+
+	/**
+	 * length, sequence number, operation and key of a log record, and its crc
+	 */
+	private static final int RECORD_OVERHEAD = 4 + 8 + 1 + 4 + 4;
+
+	private final Path _directory;
+	private final int _syncBatch;
+	private final long _checkpointBytes;
+	private final WAVLTree _tree;
+	private final StampedLock _lock;
+	private final FileChannel _log;
+
+	/**
+	 * encodes one record, only used under the write lock
+	 */
+	private final ByteArrayOutputStream _record;
+	private final DataOutputStream _recordData;
+	private final CRC32C _crc;
+
+	/**
+	 * records appended but not yet written to the log, guarded by its monitor
+	 */
+	private final ByteArrayOutputStream _pending;
+	private long _appended;
+
+	/**
+	 * the last record forced to disk and the error that stopped the log, guarded
+	 * by _commitLock
+	 */
+	private final Object _commitLock;
+
+	/**
+	 * held by the one checkpoint that runs at a time
+	 */
+	private final Object _checkpointLock;
+	private long _durable;
+	private IOException _failure;
+
+	private volatile long _logSize;
+	private boolean _closed;
+
+	/**
+	 * public DurableWAVLTree(Path directory)
+	 *
+	 * opens the tree stored in directory, creating it if it does not exist, with
+	 * an fsync for every change and the default checkpoint size
+	 */
+	public DurableWAVLTree(Path directory) throws IOException {
+		this(directory, SYNC_EVERY_CHANGE, DEFAULT_CHECKPOINT_BYTES);
+	}
+
+	/**
+	 * public DurableWAVLTree(Path directory, int syncBatch, long checkpointBytes)
+	 *
+	 * opens the tree stored in directory, creating it if it does not exist. every
+	 * syncBatch'th change waits until the log is forced to disk, and a checkpoint
+	 * runs when the log grows larger than checkpointBytes. a torn record at the
+	 * end of the log, left by a crash in the middle of a write, is cut off.
+	 */
+	public DurableWAVLTree(Path directory, int syncBatch, long checkpointBytes) throws IOException {
+		if (syncBatch < 1)
+			throw new IllegalArgumentException("sync batch must be positive: " + syncBatch);
+		if (checkpointBytes < 1)
+			throw new IllegalArgumentException("checkpoint size must be positive: " + checkpointBytes);
+
+		this._directory = directory;
+		this._syncBatch = syncBatch;
+		this._checkpointBytes = checkpointBytes;
+		this._lock = new StampedLock();
+		this._record = new ByteArrayOutputStream();
+		this._recordData = new DataOutputStream(this._record);
+		this._crc = new CRC32C();
+		this._pending = new ByteArrayOutputStream();
+		this._commitLock = new Object();
+		this._checkpointLock = new Object();
+
+		Files.createDirectories(directory);
+		Files.deleteIfExists(directory.resolve(SNAPSHOT_TMP));
+
+		long snapshotSequence = 0;
+		WAVLTree tree = new WAVLTree();
+		Path snapshot = directory.resolve(SNAPSHOT);
+		if (Files.exists(snapshot)) {
+			try (DataInputStream in = new DataInputStream(Files.newInputStream(snapshot))) {
+				snapshotSequence = in.readLong();
+				tree = WAVLTree.readFrom(in);
+			}
+		}
+		this._tree = tree;
+
+		this._log = FileChannel.open(directory.resolve(LOG), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			long end = replay(snapshotSequence);
+			if (end < this._log.size()) {
+				this._log.truncate(end);
+				this._log.force(false);
+			}
+			this._log.position(end);
+			this._logSize = end;
+		} catch (IOException | RuntimeException e) {
+			this._log.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * applies the log records after the snapshot to the tree, and returns the
+	 * length of the valid part of the log
+	 */
+
+	private long replay(long snapshotSequence) throws IOException {
+		long sequence = snapshotSequence;
+		long end = 0;
+		long size = this._log.size();
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Channels.newInputStream(this._log.position(0)), 1 << 16));
+		byte[] body = new byte[64];
+		while (size - end >= RECORD_OVERHEAD) {
+			int length = in.readInt();
+			if (length < RECORD_OVERHEAD - 8 || length > size - end - 8)
+				break;
+			if (body.length < length)
+				body = new byte[Math.max(length, body.length * 2)];
+			in.readFully(body, 0, length);
+			int crc = in.readInt();
+			this._crc.reset();
+			this._crc.update(body, 0, length);
+			if ((int) this._crc.getValue() != crc)
+				break;
+
+			ByteBuffer record = ByteBuffer.wrap(body, 0, length);
+			long recordSequence = record.getLong();
+			byte operation = record.get();
+			int key = record.getInt();
+			if (operation == INSERT) {
+				int valueLength = record.remaining() < 4 ? Integer.MIN_VALUE : record.getInt();
+				if (valueLength < -1 || valueLength > record.remaining())
+					break;
+				String value = valueLength == -1 ? null
+						: new String(body, record.position(), valueLength, StandardCharsets.UTF_8);
+				if (recordSequence > snapshotSequence)
+					this._tree.insert(key, value);
+			} else if (operation == DELETE) {
+				if (recordSequence > snapshotSequence)
+					this._tree.delete(key);
+			} else {
+				break;
+			}
+			sequence = Math.max(sequence, recordSequence);
+			end += length + 8;
+		}
+		this._appended = sequence;
+		this._durable = sequence;
+		return end;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i like WAVLTree.insert, and logs it.
+	 * returns the number of rebalancing operations, or -1 if an item with key k
+	 * already exists in the tree. throws IOException if the log could not be
+	 * written, the item is in the tree then but may not survive a crash
+	 */
+	public int insert(int k, String i) throws IOException {
+		long sequence;
+		int steps;
+		long stamp = this._lock.writeLock();
+		try {
+			checkOpen();
+			steps = this._tree.insert(k, i);
+			if (steps == -1)
+				return -1;
+			sequence = append(INSERT, k, i);
+		} finally {
+			this._lock.unlockWrite(stamp);
+		}
+		afterAppend(sequence);
+		return steps;
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k like WAVLTree.delete, and logs it. returns the
+	 * number of rebalancing operations, or -1 if an item with key k was not found
+	 * in the tree. throws IOException if the log could not be written
+	 */
+	public int delete(int k) throws IOException {
+		long sequence;
+		int steps;
+		long stamp = this._lock.writeLock();
+		try {
+			checkOpen();
+			steps = this._tree.delete(k);
+			if (steps == -1)
+				return -1;
+			sequence = append(DELETE, k, null);
+		} finally {
+			this._lock.unlockWrite(stamp);
+		}
+		afterAppend(sequence);
+		return steps;
+	}
+
+	/**
+	 * encodes a record of a change into the pending records and returns its
+	 * sequence number, called under the write lock. the record completes a batch
+	 * if its sequence number is a multiple of the sync batch, see completesBatch
+	 */
+
+	private long append(byte operation, int key, String value) throws IOException {
+		this._record.reset();
+		this._recordData.writeLong(0);
+		this._recordData.writeByte(operation);
+		this._recordData.writeInt(key);
+		if (operation == INSERT) {
+			if (value == null) {
+				this._recordData.writeInt(-1);
+			} else {
+				byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				this._recordData.writeInt(bytes.length);
+				this._recordData.write(bytes);
+			}
+		}
+
+		synchronized (this._pending) {
+			long sequence = ++this._appended;
+			byte[] body = this._record.toByteArray();
+			ByteBuffer.wrap(body).putLong(sequence);
+			this._crc.reset();
+			this._crc.update(body, 0, body.length);
+
+			DataOutputStream pending = new DataOutputStream(this._pending);
+			pending.writeInt(body.length);
+			pending.write(body);
+			pending.writeInt((int) this._crc.getValue());
+			return sequence;
+		}
+	}
+
+	/**
+	 * returns true if the record with this sequence number is the last of its
+	 * batch and has to wait for the disk. sequence numbers are consecutive, so
+	 * every syncBatch records have one such record, and with SYNC_EVERY_CHANGE
+	 * all records are
+	 */
+
+	private boolean completesBatch(long sequence) {
+		return sequence % this._syncBatch == 0;
+	}
+
+	/**
+	 * waits for the record if it completes its batch, and checkpoints if the log
+	 * grew too large. the wait does not depend on what other threads committed in
+	 * the meantime, commit returns at once if the record is already forced
+	 */
+
+	private void afterAppend(long sequence) throws IOException {
+		if (completesBatch(sequence))
+			commit(sequence);
+		if (this._logSize >= this._checkpointBytes)
+			checkpoint(this._checkpointBytes);
+	}
+
+	/**
+	 * returns once every record up to sequence is forced to disk. the thread that
+	 * holds the commit lock writes and forces all pending records, the threads
+	 * that append in the meantime queue on the lock and are covered by the next
+	 * fsync together
+	 */
+
+	private void commit(long sequence) throws IOException {
+		synchronized (this._commitLock) {
+			if (this._durable >= sequence)
+				return;
+			if (this._failure != null)
+				throw new IOException("the write-ahead log failed", this._failure);
+
+			long target;
+			byte[] records;
+			synchronized (this._pending) {
+				target = this._appended;
+				records = this._pending.toByteArray();
+				this._pending.reset();
+			}
+			try {
+				writeAndForce(records);
+			} catch (IOException e) {
+				this._failure = e;
+				throw e;
+			}
+			this._durable = target;
+		}
+	}
+
+	private void writeAndForce(byte[] records) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(records);
+		while (buffer.hasRemaining())
+			this._log.write(buffer);
+		this._log.force(false);
+		this._logSize += records.length;
+	}
+
+	/**
+	 * public void sync()
+	 *
+	 * returns once every change made so far is forced to disk
+	 */
+	public void sync() throws IOException {
+		long sequence;
+		synchronized (this._pending) {
+			sequence = this._appended;
+		}
+		commit(sequence);
+	}
+
+	/**
+	 * public void checkpoint()
+	 *
+	 * writes a snapshot of the tree and truncates the log. the snapshot is written
+	 * under the read lock, so writers wait for it but readers do not. the new
+	 * snapshot replaces the old one atomically, so a crash at any point leaves a
+	 * snapshot and a log that restore the tree
+	 */
+	public void checkpoint() throws IOException {
+		checkpoint(0);
+	}
+
+	/**
+	 * checkpoints if the log is still at least minLogSize bytes long once the
+	 * checkpoint lock is held, so threads that find the log too large at the same
+	 * time checkpoint only once. no record can be appended under the read lock,
+	 * so once the pending ones are committed the log holds exactly the changes in
+	 * the snapshot
+	 */
+
+	private void checkpoint(long minLogSize) throws IOException {
+		synchronized (this._checkpointLock) {
+			long stamp = this._lock.readLock();
+			try {
+				checkOpen();
+				long sequence;
+				synchronized (this._pending) {
+					sequence = this._appended;
+				}
+				commit(sequence);
+				if (this._logSize < minLogSize)
+					return;
+
+				Path tmp = this._directory.resolve(SNAPSHOT_TMP);
+				try (FileChannel snapshot = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+					ByteBuffer header = ByteBuffer.allocate(8).putLong(0, sequence);
+					while (header.hasRemaining())
+						snapshot.write(header);
+					this._tree.writeTo(snapshot);
+					snapshot.force(true);
+				}
+				Files.move(tmp, this._directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+				forceDirectory();
+
+				// the records are all in the snapshot now, a crash before the truncation
+				// replays none of them because their sequence numbers are not newer
+				synchronized (this._commitLock) {
+					this._log.truncate(0);
+					this._log.position(0);
+					this._log.force(false);
+					this._logSize = 0;
+				}
+			} finally {
+				this._lock.unlockRead(stamp);
+			}
+		}
+	}
+
+	/**
+	 * makes the rename of the snapshot durable. not every platform can open a
+	 * directory, there the rename is left to the file system
+	 */
+
+	private void forceDirectory() {
+		try (FileChannel directory = FileChannel.open(this._directory, StandardOpenOption.READ)) {
+			directory.force(true);
+		} catch (IOException e) {
+			// best effort, see above
+		}
+	}
+
+	/**
+	 * public void close()
+	 *
+	 * forces the pending changes to disk and closes the log. the tree cannot be
+	 * used afterwards
+	 */
+	@Override
+	public void close() throws IOException {
+		long stamp = this._lock.writeLock();
+		try {
+			if (this._closed)
+				return;
+			try {
+				sync();
+			} finally {
+				this._closed = true;
+				this._log.close();
+			}
+		} finally {
+			this._lock.unlockWrite(stamp);
+		}
+	}
+
+	private void checkOpen() {
+		if (this._closed)
+			throw new IllegalStateException("the tree is closed");
+	}
+
+	/**
+	 * public long logSize()
+	 *
+	 * returns the number of bytes in the log since the last checkpoint, without
+	 * the records that are not written yet
+	 */
+	public long logSize() {
+		return this._logSize;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree otherwise,
+	 * returns null
+	 */
+	public String search(int k) {
+		long stamp = this._lock.readLock();
+		try {
+			return this._tree.search(k);
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public String select(int i)
+	 *
+	 * Returns the value of the i'th smallest key, or null if i is out of range
+	 */
+	public String select(int i) {
+		long stamp = this._lock.readLock();
+		try {
+			return this._tree.select(i);
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	public String min() {
+		long stamp = this._lock.readLock();
+		try {
+			return this._tree.min();
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	public String max() {
+		long stamp = this._lock.readLock();
+		try {
+			return this._tree.max();
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	public int size() {
+		long stamp = this._lock.readLock();
+		try {
+			return this._tree.size();
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	public boolean empty() {
+		return size() == 0;
+	}
+
+	public int[] keysToArray() {
+		long stamp = this._lock.readLock();
+		try {
+			return this._tree.keysToArray();
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	public String[] infoToArray() {
+		long stamp = this._lock.readLock();
+		try {
+			return this._tree.infoToArray();
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+}
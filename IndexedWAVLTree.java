@@ -0,0 +1,762 @@
+/**
+ *
+ * IndexedWAVLTree
+ *
+ * The WAVL rebalancing algorithm of WAVLTree, written against int node
+ * indices instead of WAVLNode objects. Subclasses decide where the node
+ * fields live (ArrayIndexedWAVLTree keeps them in parallel arrays,
+ * MappedWAVLTree in a memory mapped file). Index 0 is always the external
+ * node, it must report size 0 and rank differences (1,1).
+ *
+ * The algorithm never looks at keys or values, so subclasses also choose
+ * their types and store them without boxing. Subclasses with int or long keys
+ * expose them through a PrimitiveKeys and share the search, insert and delete
+ * below. Others walk down to the place of a key themselves, then call newLeaf
+ * and rebalanceInsertedLeaf to insert or removeNode to delete.
+ *
+ */
+
+public abstract class IndexedWAVLTree {
+	static final int EXTERNAL = 0;
+
+	/**
+	 * the rank of a WAVL tree is at most 2log(n), and its height is at most its
+	 * rank, so no tree of up to 2^31 keys is deeper than this
+	 */
+	private static final int MAX_HEIGHT = 64;
+
+	private int _min;
+	private int _max;
+
+	protected IndexedWAVLTree() {
+		this._min = EXTERNAL;
+		this._max = EXTERNAL;
+	}
+
+	abstract int getRootNode();
+
+	abstract void setRootNode(int node);
+
+	/**
+	 * compares the keys of two inner nodes like a Comparator
+	 */
+
+	abstract int compareKeys(int node, int other);
+
+	/**
+	 * copies key and value of node from into node to, used when a binary node is
+	 * replaced by its successor on deletion
+	 */
+
+	abstract void copyEntry(int from, int to);
+
+	abstract int getLeft(int node);
+
+	abstract void setLeft(int node, int left);
+
+	abstract int getRight(int node);
+
+	abstract void setRight(int node, int right);
+
+	abstract int getParent(int node);
+
+	abstract void setParent(int node, int parent);
+
+	/**
+	 * rank differences of a node packed by packDiffs
+	 */
+
+	abstract int getDiffs(int node);
+
+	abstract void setDiffs(int node, int diffs);
+
+	abstract int getSize(int node);
+
+	abstract void setSize(int node, int size);
+
+	/**
+	 * returns an unused node index, the fields of the node are initialized by the
+	 * caller
+	 */
+
+	abstract int allocateNode();
+
+	/**
+	 * returns a node that was removed from the tree to the storage for reuse
+	 */
+
+	abstract void releaseNode(int node);
+
+	/**
+	 * recomputes the cached minimal and maximal nodes, for subclasses that load an
+	 * existing tree
+	 */
+
+	void resetMinMaxNodes() {
+		if (empty()) {
+			this._min = EXTERNAL;
+			this._max = EXTERNAL;
+		} else {
+			this._min = minNode(getRootNode());
+			this._max = maxNode(getRootNode());
+		}
+	}
+
+	/**
+	 * walks the whole tree and throws IllegalStateException if a parent link,
+	 * the key order, a subtree size or a rank difference is invalid. rank
+	 * differences must be 1 or 2 and leaves must have rank 0
+	 */
+
+	void checkInvariants() {
+		int root = getRootNode();
+		if (root != EXTERNAL && getParent(root) != EXTERNAL)
+			throw new IllegalStateException("root " + root + " has a parent");
+		checkSubtree(root, EXTERNAL, EXTERNAL, 0);
+		resetMinMaxNodes();
+	}
+
+	/**
+	 * checks the subtree of node, whose keys must lie strictly between the keys
+	 * of the nodes low and high, EXTERNAL for no bound, and returns its rank
+	 */
+
+	private int checkSubtree(int node, int low, int high, int depth) {
+		if (node == EXTERNAL)
+			return -1;
+		if (depth > MAX_HEIGHT)
+			throw new IllegalStateException("tree deeper than " + MAX_HEIGHT + " levels at node " + node);
+
+		if ((low != EXTERNAL && compareKeys(node, low) <= 0) || (high != EXTERNAL && compareKeys(node, high) >= 0))
+			throw new IllegalStateException("key of node " + node + " is out of order");
+
+		int left = getLeft(node);
+		int right = getRight(node);
+		if ((left != EXTERNAL && getParent(left) != node) || (right != EXTERNAL && getParent(right) != node))
+			throw new IllegalStateException("broken parent link below node " + node);
+
+		int leftRank = checkSubtree(left, low, node, depth + 1);
+		int rightRank = checkSubtree(right, node, high, depth + 1);
+
+		int leftDiff = getLeftDiff(node);
+		int rightDiff = getRightDiff(node);
+		if (leftDiff < 1 || leftDiff > 2 || rightDiff < 1 || rightDiff > 2)
+			throw new IllegalStateException("rank differences (" + leftDiff + "," + rightDiff + ") at node " + node);
+		if (leftRank + leftDiff != rightRank + rightDiff)
+			throw new IllegalStateException("inconsistent rank at node " + node);
+		if (left == EXTERNAL && right == EXTERNAL && leftDiff != 1)
+			throw new IllegalStateException("leaf " + node + " does not have rank 0");
+		if (getSize(node) != getSize(left) + getSize(right) + 1)
+			throw new IllegalStateException("wrong subtree size at node " + node);
+
+		return leftRank + leftDiff;
+	}
+
+	/**
+	 * allocates a node and links it as a leaf below parent, on its left side if
+	 * left is true, or as the root if parent is EXTERNAL. the caller writes key
+	 * and value and then calls rebalanceInsertedLeaf
+	 */
+
+	int newLeaf(int parent, boolean left) {
+		int node = allocateNode();
+		setLeft(node, EXTERNAL);
+		setRight(node, EXTERNAL);
+		setParent(node, parent);
+		setDiffs(node, packDiffs(1, 1));
+		setSize(node, 1);
+
+		if (parent == EXTERNAL) {
+			setRootNode(node);
+			this._min = node;
+			this._max = node;
+		} else if (left) {
+			setLeft(parent, node);
+			if (this._min == parent)
+				this._min = node;
+		} else {
+			setRight(parent, node);
+			if (this._max == parent)
+				this._max = node;
+		}
+		return node;
+	}
+
+	/**
+	 * rebalances the tree after node was added by newLeaf. returns the number of
+	 * rebalancing operations, or 0 if no rebalancing operations were necessary
+	 */
+
+	int rebalanceInsertedLeaf(int node) {
+		int steps = rebalanceTree(node);
+		updateNodeBranchAfterRebalance(getParent(node));
+		return steps;
+	}
+
+	/**
+	 * the keys of a tree with int or long keys, widened to a long. only those
+	 * trees have one, the others compare their keys themselves
+	 */
+
+	abstract static class PrimitiveKeys {
+		abstract long get(int node);
+
+		abstract void set(int node, long key);
+	}
+
+	/**
+	 * search by key in the tree returns the node with the given key, or EXTERNAL
+	 * if there is none
+	 */
+
+	int getNodeByPrimitiveKey(PrimitiveKeys keys, long key) {
+		int node = getRootNode();
+		while (node != EXTERNAL) {
+			long nodeKey = keys.get(node);
+
+			if (nodeKey == key)
+				return node;
+
+			node = nodeKey > key ? getLeft(node) : getRight(node);
+		}
+		return EXTERNAL;
+	}
+
+	/**
+	 * walks down to the place of key and links a new leaf with that key there.
+	 * returns the leaf, whose value the caller writes before it calls
+	 * rebalanceInsertedLeaf, or EXTERNAL if key is already in the tree
+	 */
+
+	int insertPrimitiveKey(PrimitiveKeys keys, long key) {
+		int parent = EXTERNAL;
+		boolean left = false;
+		for (int node = getRootNode(); node != EXTERNAL; node = left ? getLeft(node) : getRight(node)) {
+			long nodeKey = keys.get(node);
+			if (nodeKey == key)
+				return EXTERNAL;
+			parent = node;
+			left = nodeKey > key;
+		}
+
+		int node = newLeaf(parent, left);
+		keys.set(node, key);
+		return node;
+	}
+
+	/**
+	 * deletes the item with key, if it is there. returns the number of
+	 * rebalancing operations, or -1 if key was not found in the tree
+	 */
+
+	int deletePrimitiveKey(PrimitiveKeys keys, long key) {
+		int node = getNodeByPrimitiveKey(keys, key);
+		return node == EXTERNAL ? -1 : removeNode(node);
+	}
+
+	/**
+	 * returns the keys of a tree with int keys in order
+	 */
+
+	int[] intKeysToArray(PrimitiveKeys keys) {
+		int[] arr = new int[size()];
+		int index = 0;
+		for (int node = getMinNode(); node != EXTERNAL; node = successor(node))
+			arr[index++] = (int) keys.get(node);
+		return arr;
+	}
+
+	/**
+	 * rank differences of a node are packed into one int, left in the low 4 bits
+	 * and right in the next 4 bits
+	 */
+
+	static int packDiffs(int leftDiff, int rightDiff) {
+		return leftDiff | (rightDiff << 4);
+	}
+
+	private int getLeftDiff(int node) {
+		return getDiffs(node) & 0xF;
+	}
+
+	private int getRightDiff(int node) {
+		return getDiffs(node) >>> 4;
+	}
+
+	private void setLeftDiff(int node, int leftDiff) {
+		setDiffs(node, packDiffs(leftDiff, getRightDiff(node)));
+	}
+
+	private void setRightDiff(int node, int rightDiff) {
+		setDiffs(node, packDiffs(getLeftDiff(node), rightDiff));
+	}
+
+	private void addLeftDiff(int node, int delta) {
+		setDiffs(node, getDiffs(node) + delta);
+	}
+
+	private void addRightDiff(int node, int delta) {
+		setDiffs(node, getDiffs(node) + (delta << 4));
+	}
+
+	private boolean isLeftChild(int parent, int node) {
+		return getLeft(parent) == node;
+	}
+
+	private boolean isBinary(int node) {
+		return getLeft(node) != EXTERNAL && getRight(node) != EXTERNAL;
+	}
+
+	private boolean isLeaf(int node) {
+		return getLeft(node) == EXTERNAL && getRight(node) == EXTERNAL;
+	}
+
+	/**
+	 * rebalances the tree after insertion returns number of rebalancing steps
+	 * needed for
+	 */
+
+	private int rebalanceTree(int node) {
+		int steps = 0;
+
+		int parent = getParent(node);
+
+		while (parent != EXTERNAL) {
+			if (isLeftChild(parent, node)) {
+				addLeftDiff(parent, -1);
+			} else {
+				addRightDiff(parent, -1);
+			}
+			if (requiresPromotion(parent)) { // case1: promote
+				addLeftDiff(parent, 1);
+				addRightDiff(parent, 1);
+				steps += 1;
+			} else if (requiresSingleRotation(parent)) { // case2: single rotation
+				singleRotate(node, parent);
+				return steps + 2;
+			} else if (requiresDoubleRotation(parent)) { // case3: double rotation
+				if (isLeftChild(parent, node))
+					doubleRotateFromLeft(node, parent);
+				else
+					doubleRotateFromRight(node, parent);
+				return steps + 5;
+			} else // case B: node is valid (1,1), no need for rebalancing
+				return steps;
+
+			node = parent;
+			parent = getParent(parent);
+		}
+		return steps;
+	}
+
+	/**
+	 * checks if case 1 of insert rebalancing is needed
+	 */
+
+	private boolean requiresPromotion(int node) {
+		int leftDiff = getLeftDiff(node);
+		int rightDiff = getRightDiff(node);
+		return (leftDiff == 0 || rightDiff == 0) && (leftDiff == 1 || rightDiff == 1);
+	}
+
+	/**
+	 * checks if case 2 of insert rebalancing is needed
+	 */
+
+	private boolean requiresSingleRotation(int node) {
+		int leftDiff = getLeftDiff(node);
+		int rightDiff = getRightDiff(node);
+		return (leftDiff == 0 && rightDiff == 2 && getRightDiff(getLeft(node)) == 2)
+				|| (rightDiff == 0 && leftDiff == 2 && getLeftDiff(getRight(node)) == 2);
+	}
+
+	/**
+	 * checks if case 3 of insert rebalancing is needed
+	 */
+
+	private boolean requiresDoubleRotation(int node) {
+		return (getLeftDiff(node) == 0 && getLeftDiff(getLeft(node)) == 2)
+				|| (getRightDiff(node) == 0 && getRightDiff(getRight(node)) == 2);
+	}
+
+	private void singleRotate(int node, int parent) {
+		setDiffs(parent, packDiffs(1, 1));
+		setDiffs(node, packDiffs(1, 1));
+		rotate(node);
+	}
+
+	private void doubleRotateFromLeft(int node, int parent) {
+		int rightChild = getRight(node);
+		setDiffs(parent, packDiffs(getRightDiff(rightChild), 1));
+		setDiffs(node, packDiffs(1, getLeftDiff(rightChild)));
+		setDiffs(rightChild, packDiffs(1, 1));
+		rotate(rightChild);
+		rotate(rightChild);
+	}
+
+	private void doubleRotateFromRight(int node, int parent) {
+		int leftChild = getLeft(node);
+		setDiffs(parent, packDiffs(1, getLeftDiff(leftChild)));
+		setDiffs(node, packDiffs(getRightDiff(leftChild), 1));
+		setDiffs(leftChild, packDiffs(1, 1));
+		rotate(leftChild);
+		rotate(leftChild);
+	}
+
+	private void rotate(int node) {
+		int parent = getParent(node);
+		int ancestor = getParent(parent);
+		setParent(node, ancestor);
+		if (ancestor == EXTERNAL)
+			setRootNode(node);
+		else {
+			if (isLeftChild(ancestor, parent)) {
+				setLeft(ancestor, node);
+			} else {
+				setRight(ancestor, node);
+			}
+		}
+		setParent(parent, node);
+
+		if (isLeftChild(parent, node)) {
+			int inner = getRight(node);
+			setLeft(parent, inner);
+			if (inner != EXTERNAL)
+				setParent(inner, parent);
+			setRight(node, parent);
+		} else {
+			int inner = getLeft(node);
+			setRight(parent, inner);
+			if (inner != EXTERNAL)
+				setParent(inner, parent);
+			setLeft(node, parent);
+		}
+		updateNodeSize(parent);
+		updateNodeSize(node);
+	}
+
+	private void updateNodeSize(int node) {
+		setSize(node, getSize(getLeft(node)) + getSize(getRight(node)) + 1);
+	}
+
+	/**
+	 * deletes the item of an inner node from the tree, the tree must remain valid
+	 * (keep its invariants). returns the number of rebalancing operations, or 0 if
+	 * no rebalancing operations were needed
+	 */
+
+	int removeNode(int node) {
+		if (isBinary(node)) {
+			int successor = minNode(getRight(node));
+			copyEntry(successor, node);
+			if (this._max == successor)
+				this._max = node;
+			node = successor;
+		}
+
+		int parent = deleteNode(node);
+		releaseNode(node);
+
+		int steps = rebalanceAfterDeletion(parent);
+		updateMinMaxNodesAfterDeletion(node);
+		return steps;
+	}
+
+	private void updateMinMaxNodesAfterDeletion(int removedNode) {
+		if (empty()) {
+			this._min = EXTERNAL;
+			this._max = EXTERNAL;
+		} else {
+			if (this._min == removedNode)
+				this._min = minNode(getRootNode());
+
+			if (this._max == removedNode)
+				this._max = maxNode(getRootNode());
+		}
+	}
+
+	private int deleteNode(int node) {
+		int parent = getParent(node);
+		int child = getLeft(node) != EXTERNAL ? getLeft(node) : getRight(node);
+		if (child != EXTERNAL)
+			setParent(child, parent);
+
+		if (parent == EXTERNAL) {
+			setRootNode(child);
+		} else {
+			if (isLeftChild(parent, node)) {
+				setLeft(parent, child);
+				addLeftDiff(parent, 1);
+			} else {
+				setRight(parent, child);
+				addRightDiff(parent, 1);
+			}
+		}
+		return parent;
+	}
+
+	/**
+	 * rebalances the tree after deletion rebalancing returns number of steps needed
+	 * for. sizes are fixed in the same upward pass, once no case applies the tree
+	 * is valid and the nodes above only need their size decreased
+	 */
+	private int rebalanceAfterDeletion(int node) {
+		int steps = 0;
+		while (node != EXTERNAL) {
+			setSize(node, getSize(node) - 1);
+			if (requiresDemotion(node)) {
+				demote(node);
+				steps += 1;
+			} else if (requiresDoubleDemotion(node)) {
+				doubleDemote(node);
+				steps += 2;
+			} else if (requiresSingleDeleteRotation(node)) {
+				steps += singleDeleteRotation(node) + 3;
+				decreaseBranchSize(getParent(getParent(node)));
+				return steps;
+			} else if (requiresDeleteDoubleRotation(node)) {
+				doubleDeleteRotation(node);
+				decreaseBranchSize(getParent(getParent(node)));
+				return steps + 5;
+			} else {
+				decreaseBranchSize(getParent(node));
+				return steps;
+			}
+			node = getParent(node);
+		}
+
+		return steps;
+	}
+
+	/**
+	 * decreases by 1 the size of a node and all of its ancestors
+	 */
+
+	private void decreaseBranchSize(int node) {
+		while (node != EXTERNAL) {
+			setSize(node, getSize(node) - 1);
+			node = getParent(node);
+		}
+	}
+
+	private void demote(int node) {
+		addLeftDiff(node, -1);
+		addRightDiff(node, -1);
+		int parent = getParent(node);
+		if (parent != EXTERNAL) {
+			if (isLeftChild(parent, node))
+				addLeftDiff(parent, 1);
+			else
+				addRightDiff(parent, 1);
+		}
+	}
+
+	private void doubleDemote(int node) {
+		if (getLeftDiff(node) == 3)
+			demote(getRight(node));
+		else
+			demote(getLeft(node));
+		demote(node);
+	}
+
+	private int singleDeleteRotation(int node) {
+		if (getLeftDiff(node) == 3) {
+			int right = getRight(node);
+			addLeftDiff(node, -1);
+			setRightDiff(node, getLeftDiff(right));
+			addRightDiff(right, 1);
+			setLeftDiff(right, 1);
+			rotate(right);
+		} else {
+			int left = getLeft(node);
+			addRightDiff(node, -1);
+			setLeftDiff(node, getRightDiff(left));
+			addLeftDiff(left, 1);
+			setRightDiff(left, 1);
+			rotate(left);
+		}
+		if (getLeftDiff(node) == 2 && getRightDiff(node) == 2) {
+			demote(node);
+			return 1;
+		}
+		return 0;
+	}
+
+	private void doubleDeleteRotation(int node) {
+		if (getLeftDiff(node) == 3) {
+			int right = getRight(node);
+			int grandson = getLeft(right);
+
+			setDiffs(node, packDiffs(1, getLeftDiff(grandson)));
+			setDiffs(right, packDiffs(getRightDiff(grandson), getRightDiff(right) - 1));
+			setDiffs(grandson, packDiffs(2, 2));
+
+			rotate(grandson);
+			rotate(grandson);
+
+		} else {
+			int left = getLeft(node);
+			int grandson = getRight(left);
+
+			setDiffs(node, packDiffs(getRightDiff(grandson), 1));
+			setDiffs(left, packDiffs(getLeftDiff(left) - 1, getLeftDiff(grandson)));
+			setDiffs(grandson, packDiffs(2, 2));
+
+			rotate(grandson);
+			rotate(grandson);
+
+		}
+	}
+
+	/**
+	 * checks if case 1 of rebalancing after deletion is needed
+	 */
+
+	private boolean requiresDemotion(int node) {
+		int leftDiff = getLeftDiff(node);
+		int rightDiff = getRightDiff(node);
+		return (rightDiff == 3 && leftDiff == 2) || (leftDiff == 3 && rightDiff == 2)
+				|| (leftDiff == 2 && rightDiff == 2 && isLeaf(node));
+	}
+
+	/**
+	 * checks if case 2 of rebalancing after deletion is needed
+	 */
+
+	private boolean requiresDoubleDemotion(int node) {
+		int leftDiff = getLeftDiff(node);
+		int rightDiff = getRightDiff(node);
+		return (rightDiff == 3 && leftDiff == 1 && getDiffs(getLeft(node)) == packDiffs(2, 2))
+				|| (leftDiff == 3 && rightDiff == 1 && getDiffs(getRight(node)) == packDiffs(2, 2));
+	}
+
+	/**
+	 * checks if case 3 of rebalancing after deletion is needed
+	 */
+
+	private boolean requiresSingleDeleteRotation(int node) {
+		int leftDiff = getLeftDiff(node);
+		int rightDiff = getRightDiff(node);
+		return (rightDiff == 3 && leftDiff == 1 && getLeftDiff(getLeft(node)) == 1)
+				|| (leftDiff == 3 && rightDiff == 1 && getRightDiff(getRight(node)) == 1);
+	}
+
+	/**
+	 * checks if case 4 of rebalancing after deletion is needed
+	 */
+
+	private boolean requiresDeleteDoubleRotation(int node) {
+		int leftDiff = getLeftDiff(node);
+		int rightDiff = getRightDiff(node);
+		return (rightDiff == 3 && leftDiff == 1 && getLeftDiff(getLeft(node)) == 2)
+				|| (leftDiff == 3 && rightDiff == 1 && getRightDiff(getRight(node)) == 2);
+	}
+
+	private void updateNodeBranchAfterRebalance(int node) {
+		while (node != EXTERNAL) {
+			updateNodeSize(node);
+			node = getParent(node);
+		}
+	}
+
+	/**
+	 * returns the node with the minimal key in the subtree in which node is the
+	 * root
+	 */
+
+	int minNode(int node) {
+		while (getLeft(node) != EXTERNAL)
+			node = getLeft(node);
+		return node;
+	}
+
+	/**
+	 * returns the node with the maximal key in the subtree in which node is the
+	 * root
+	 */
+
+	int maxNode(int node) {
+		while (getRight(node) != EXTERNAL)
+			node = getRight(node);
+		return node;
+	}
+
+	/**
+	 * returns the node with the next larger key, or EXTERNAL for the maximal node
+	 */
+
+	int successor(int node) {
+		if (getRight(node) != EXTERNAL)
+			return minNode(getRight(node));
+
+		int parent = getParent(node);
+		while (parent != EXTERNAL && !isLeftChild(parent, node)) {
+			node = parent;
+			parent = getParent(parent);
+		}
+		return parent;
+	}
+
+	/**
+	 * returns the node with the smallest key, or EXTERNAL if the tree is empty
+	 */
+
+	int getMinNode() {
+		return this._min;
+	}
+
+	/**
+	 * returns the node with the largest key, or EXTERNAL if the tree is empty
+	 */
+
+	int getMaxNode() {
+		return this._max;
+	}
+
+	/**
+	 * returns the node of the i'th smallest key, counting from 1, or EXTERNAL if i
+	 * is out of range
+	 */
+
+	int selectNode(int i) {
+		i--;
+
+		if (i < 0 || this.size() < i + 1)
+			return EXTERNAL;
+
+		int node = getRootNode();
+
+		while (node != EXTERNAL) {
+			int leftSize = getSize(getLeft(node));
+			if (i == leftSize)
+				return node;
+			if (i < leftSize)
+				node = getLeft(node);
+			else {
+				i = i - leftSize - 1;
+				node = getRight(node);
+			}
+		}
+		return EXTERNAL;
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 *
+	 */
+	public boolean empty() {
+		return getRootNode() == EXTERNAL;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of inner nodes in the tree.
+	 *
+	 */
+	public int size() {
+		return getSize(getRootNode());
+	}
+}
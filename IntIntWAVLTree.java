@@ -0,0 +1,162 @@
+import java.util.Arrays;
+
+/**
+ *
+ * IntIntWAVLTree
+ *
+ * A WAVL Tree with int keys and int values, both stored inline in parallel
+ * arrays, so no operation allocates per key. Lookups of a missing key return
+ * a default value chosen by the caller instead of null.
+ *
+ */
+
+public class IntIntWAVLTree extends ArrayIndexedWAVLTree {
+	private int[] _keys;
+	private int[] _values;
+
+	public IntIntWAVLTree() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * creates an empty tree with room for capacity keys before the arrays have to
+	 * grow
+	 */
+
+	public IntIntWAVLTree(int capacity) {
+		super(capacity);
+		this._keys = new int[capacity + 1];
+		this._values = new int[capacity + 1];
+	}
+
+	@Override
+	void growEntries(int length) {
+		this._keys = Arrays.copyOf(this._keys, length);
+		this._values = Arrays.copyOf(this._values, length);
+	}
+
+	@Override
+	int compareKeys(int node, int other) {
+		return Integer.compare(this._keys[node], this._keys[other]);
+	}
+
+	@Override
+	void copyEntry(int from, int to) {
+		this._keys[to] = this._keys[from];
+		this._values[to] = this._values[from];
+	}
+
+	private final PrimitiveKeys _primitiveKeys = new PrimitiveKeys() {
+		@Override
+		long get(int node) {
+			return IntIntWAVLTree.this._keys[node];
+		}
+
+		@Override
+		void set(int node, long key) {
+			IntIntWAVLTree.this._keys[node] = (int) key;
+		}
+	};
+
+	/**
+	 * public boolean contains(int k)
+	 *
+	 * returns true if and only if an item with key k exists in the tree
+	 */
+	public boolean contains(int k) {
+		return getNodeByPrimitiveKey(this._primitiveKeys, k) != EXTERNAL;
+	}
+
+	/**
+	 * public int search(int k, int missing)
+	 *
+	 * returns the info of an item with key k if it exists in the tree otherwise,
+	 * returns missing
+	 */
+	public int search(int k, int missing) {
+		int node = getNodeByPrimitiveKey(this._primitiveKeys, k);
+		return node == EXTERNAL ? missing : this._values[node];
+	}
+
+	/**
+	 * public int insert(int k, int i)
+	 *
+	 * inserts an item with key k and info i to the WAVL tree. returns the number
+	 * of rebalancing operations, or -1 if an item with key k already exists in the
+	 * tree.
+	 */
+	public int insert(int k, int i) {
+		int node = insertPrimitiveKey(this._primitiveKeys, k);
+		if (node == EXTERNAL)
+			return -1;
+		this._values[node] = i;
+		return rebalanceInsertedLeaf(node);
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the tree, if it is there. returns the number
+	 * of rebalancing operations, or -1 if an item with key k was not found in the
+	 * tree.
+	 */
+	public int delete(int k) {
+		return deletePrimitiveKey(this._primitiveKeys, k);
+	}
+
+	/**
+	 * public int min(int missing)
+	 *
+	 * Returns the info of the item with the smallest key in the tree, or missing
+	 * if the tree is empty
+	 */
+	public int min(int missing) {
+		return empty() ? missing : this._values[getMinNode()];
+	}
+
+	/**
+	 * public int max(int missing)
+	 *
+	 * Returns the info of the item with the largest key in the tree, or missing if
+	 * the tree is empty
+	 */
+	public int max(int missing) {
+		return empty() ? missing : this._values[getMaxNode()];
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree, or an empty array
+	 * if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		return intKeysToArray(this._primitiveKeys);
+	}
+
+	/**
+	 * public int[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree, sorted by their
+	 * respective keys, or an empty array if the tree is empty.
+	 */
+	public int[] infoToArray() {
+		int[] arr = new int[size()];
+		int index = 0;
+		for (int node = getMinNode(); node != EXTERNAL; node = successor(node))
+			arr[index++] = this._values[node];
+		return arr;
+	}
+
+	/**
+	 * public int select(int i, int missing)
+	 *
+	 * Returns the value of the i'th smallest key, or missing if i is out of range.
+	 * select(1, missing) returns the value of the node with minimal key
+	 *
+	 */
+	public int select(int i, int missing) {
+		int node = selectNode(i);
+		return node == EXTERNAL ? missing : this._values[node];
+	}
+}
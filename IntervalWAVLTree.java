@@ -0,0 +1,301 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ *
+ * IntervalWAVLTree
+ *
+ * A WAVL Tree of closed intervals [lo, hi], keyed on lo, where every node
+ * also keeps the largest hi of its subtree. The maxima are recomputed wherever
+ * the sizes are, so insert and delete keep the rebalancing of WAVLTree and
+ * stay O(log n), and a subtree whose largest hi is below a query is skipped
+ * as a whole.
+ *
+ * Intervals with the same lo share one node, which keeps their hi and infos
+ * in the order they were inserted, so size counts the distinct lo. search and
+ * the WAVLTreeMap views see the info of the first interval of each lo.
+ * insert(k, i) and insertAll insert the point interval [k, k], delete(k)
+ * removes all intervals that start at k. split, join and the other operations
+ * that build new trees return plain WAVLTrees without the intervals.
+ *
+ */
+
+public class IntervalWAVLTree extends WAVLTree {
+	public IntervalWAVLTree() {
+		super(true);
+	}
+
+	/**
+	 * a visitor of the intervals of a tree
+	 */
+
+	@FunctionalInterface
+	public interface IntervalConsumer {
+		void accept(int lo, int hi, String value);
+	}
+
+	/**
+	 * a node with the intervals that start at its key and the largest hi of its
+	 * subtree. the info of the first interval is the value of the node, the infos
+	 * of the others are in _values from index 1
+	 */
+
+	static class IntervalNode extends WAVLNode {
+		private int[] _highs;
+		private String[] _values;
+		private int _count;
+		private int _high;
+		private int _maxHigh;
+
+		IntervalNode(int key, String value, WAVLNode parent) {
+			super(key, value, parent);
+			this._highs = new int[] { key };
+			this._count = 1;
+			this._high = key;
+			this._maxHigh = key;
+		}
+
+		String valueAt(int index) {
+			return index == 0 ? getValue() : this._values[index];
+		}
+
+		/**
+		 * sets the hi of the first interval, while the node is a new leaf that is
+		 * not rebalanced yet
+		 */
+
+		void setFirstHigh(int high) {
+			this._highs[0] = high;
+			this._high = high;
+			this._maxHigh = high;
+		}
+
+		void add(int high, String value) {
+			if (this._count == this._highs.length) {
+				this._highs = Arrays.copyOf(this._highs, 2 * this._count);
+				this._values = Arrays.copyOf(this._values == null ? new String[1] : this._values, 2 * this._count);
+			}
+			this._highs[this._count] = high;
+			this._values[this._count++] = value;
+			this._high = Math.max(this._high, high);
+		}
+
+		/**
+		 * removes the first interval that ends at high, if there is one and it is
+		 * not the only one. returns whether it removed an interval
+		 */
+
+		boolean remove(int high) {
+			int index = 0;
+			while (index < this._count && this._highs[index] != high)
+				index++;
+			if (index == this._count || this._count == 1)
+				return false;
+
+			if (index == 0)
+				setValue(this._values[1]);
+			int from = Math.max(index, 1);
+			System.arraycopy(this._highs, index + 1, this._highs, index, this._count - index - 1);
+			System.arraycopy(this._values, from + 1, this._values, from, this._count - from - 1);
+			this._values[--this._count] = null;
+
+			this._high = this._highs[0];
+			for (int i = 1; i < this._count; i++)
+				this._high = Math.max(this._high, this._highs[i]);
+			return true;
+		}
+
+		@Override
+		public void updateKeyAndValue(WAVLNode node) {
+			super.updateKeyAndValue(node);
+			IntervalNode interval = (IntervalNode) node;
+			this._highs = interval._highs;
+			this._values = interval._values;
+			this._count = interval._count;
+			this._high = interval._high;
+		}
+	}
+
+	@Override
+	WAVLNode createNode(int key, String value, WAVLNode parent) {
+		return new IntervalNode(key, value, parent);
+	}
+
+	@Override
+	void updateAugmentation(WAVLNode node) {
+		IntervalNode interval = (IntervalNode) node;
+		int maxHigh = interval._high;
+		if (node.getLeft() != null)
+			maxHigh = Math.max(maxHigh, ((IntervalNode) node.getLeft())._maxHigh);
+		if (node.getRight() != null)
+			maxHigh = Math.max(maxHigh, ((IntervalNode) node.getRight())._maxHigh);
+		interval._maxHigh = maxHigh;
+	}
+
+	/**
+	 * public int insert(int lo, int hi, String i)
+	 *
+	 * inserts the interval [lo, hi] with info i, after the intervals that already
+	 * start at lo. returns the number of rebalancing operations, which is 0 if
+	 * another interval starts at lo. throws IllegalArgumentException if hi < lo
+	 */
+	public int insert(int lo, int hi, String i) {
+		if (hi < lo)
+			throw new IllegalArgumentException("interval [" + lo + ", " + hi + "]");
+
+		IntervalNode node = (IntervalNode) insertLeaf(lo, i);
+		if (node != null) {
+			node.setFirstHigh(hi);
+			return rebalanceInsertedNode(node);
+		}
+
+		node = (IntervalNode) findNode(lo);
+		node.add(hi, i);
+		updateBranch(node);
+		return 0;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts the point interval [k, k] with info i
+	 */
+	@Override
+	public int insert(int k, String i) {
+		return insert(k, k, i);
+	}
+
+	/**
+	 * public int[] insertAll(int[] keys, String[] values)
+	 *
+	 * inserts the point intervals [keys[j], keys[j]] with info values[j], and
+	 * returns in results[j] what insert returned for it
+	 */
+	@Override
+	public int[] insertAll(int[] keys, String[] values) {
+		if (keys.length != values.length)
+			throw new IllegalArgumentException(keys.length + " keys but " + values.length + " values");
+
+		int[] results = new int[keys.length];
+		for (int j = 0; j < keys.length; j++)
+			results[j] = insert(keys[j], keys[j], values[j]);
+		return results;
+	}
+
+	/**
+	 * public int delete(int lo, int hi)
+	 *
+	 * deletes the first interval [lo, hi]. returns the number of rebalancing
+	 * operations, which is 0 if other intervals start at lo, or -1 if there is no
+	 * interval [lo, hi]
+	 */
+	public int delete(int lo, int hi) {
+		IntervalNode node = (IntervalNode) findNode(lo);
+		if (node == null)
+			return -1;
+		if (node._count == 1)
+			return node._highs[0] == hi ? delete(lo) : -1;
+		if (!node.remove(hi))
+			return -1;
+
+		updateBranch(node);
+		return 0;
+	}
+
+	/**
+	 * recomputes the largest hi of the subtrees on the path from node to the root
+	 * after the intervals of node changed
+	 */
+
+	private void updateBranch(IntervalNode node) {
+		for (WAVLNode ancestor = node; ancestor != null; ancestor = ancestor.getParent())
+			updateAugmentation(ancestor);
+	}
+
+	/**
+	 * public int high(int lo)
+	 *
+	 * returns the largest hi of the intervals that start at lo. throws
+	 * NoSuchElementException if there is none
+	 */
+	public int high(int lo) {
+		WAVLNode node = findNode(lo);
+		if (node == null)
+			throw new NoSuchElementException("no interval starts at " + lo);
+		return ((IntervalNode) node)._high;
+	}
+
+	/**
+	 * public int count(int lo)
+	 *
+	 * returns the number of intervals that start at lo
+	 */
+	public int count(int lo) {
+		WAVLNode node = findNode(lo);
+		return node == null ? 0 : ((IntervalNode) node)._count;
+	}
+
+	/**
+	 * public void overlapping(int point, IntervalConsumer action)
+	 *
+	 * calls action with every interval that contains point, in increasing order
+	 * of lo
+	 */
+	public void overlapping(int point, IntervalConsumer action) {
+		overlapping(point, point, action);
+	}
+
+	/**
+	 * public void overlapping(int lo, int hi, IntervalConsumer action)
+	 *
+	 * calls action with every interval that shares a point with [lo, hi], in
+	 * increasing order of lo and in insertion order for the same lo. visits the
+	 * ancestors of the reported intervals and the search paths of lo and hi,
+	 * which is O(log n + k) for k intervals that are next to each other in the
+	 * order of lo and O(k log(n / k)) at most
+	 */
+	public void overlapping(int lo, int hi, IntervalConsumer action) {
+		if (!empty() && lo <= hi)
+			overlapping((IntervalNode) getRoot(), lo, hi, action);
+	}
+
+	/**
+	 * public int[] overlapping(int lo, int hi)
+	 *
+	 * returns the lo of the intervals that share a point with [lo, hi], sorted,
+	 * once for every such interval
+	 */
+	public int[] overlapping(int lo, int hi) {
+		int[][] starts = { new int[16] };
+		int[] count = new int[1];
+		overlapping(lo, hi, (start, end, value) -> {
+			if (count[0] == starts[0].length)
+				starts[0] = Arrays.copyOf(starts[0], 2 * count[0]);
+			starts[0][count[0]++] = start;
+		});
+		return Arrays.copyOf(starts[0], count[0]);
+	}
+
+	/**
+	 * reports the intervals of the subtree of node that overlap [lo, hi]. the
+	 * intervals of a subtree all end before lo when its largest hi does, and the
+	 * right subtree of a node that starts after hi only has intervals that do
+	 * too
+	 */
+
+	private void overlapping(IntervalNode node, int lo, int hi, IntervalConsumer action) {
+		while (node != null && node._maxHigh >= lo) {
+			if (node.getLeft() != null)
+				overlapping((IntervalNode) node.getLeft(), lo, hi, action);
+			if (node.getKey() > hi)
+				return;
+			if (node._high >= lo) {
+				for (int i = 0; i < node._count; i++) {
+					if (node._highs[i] >= lo)
+						action.accept(node.getKey(), node._highs[i], node.valueAt(i));
+				}
+			}
+			node = (IntervalNode) node.getRight();
+		}
+	}
+}
@@ -0,0 +1,166 @@
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ *
+ * LongWAVLTree
+ *
+ * A WAVL Tree with long keys and values of any type, stored in parallel
+ * arrays like ArrayWAVLTree. Keys are kept unboxed, so inserting and
+ * searching do not allocate per key.
+ *
+ */
+
+public class LongWAVLTree<V> extends ArrayIndexedWAVLTree {
+	private long[] _keys;
+	private Object[] _values;
+
+	public LongWAVLTree() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * creates an empty tree with room for capacity keys before the arrays have to
+	 * grow
+	 */
+
+	public LongWAVLTree(int capacity) {
+		super(capacity);
+		this._keys = new long[capacity + 1];
+		this._values = new Object[capacity + 1];
+	}
+
+	@Override
+	void growEntries(int length) {
+		this._keys = Arrays.copyOf(this._keys, length);
+		this._values = Arrays.copyOf(this._values, length);
+	}
+
+	@Override
+	void clearEntry(int node) {
+		this._values[node] = null;
+	}
+
+	@Override
+	int compareKeys(int node, int other) {
+		return Long.compare(this._keys[node], this._keys[other]);
+	}
+
+	@Override
+	void copyEntry(int from, int to) {
+		this._keys[to] = this._keys[from];
+		this._values[to] = this._values[from];
+	}
+
+	private final PrimitiveKeys _primitiveKeys = new PrimitiveKeys() {
+		@Override
+		long get(int node) {
+			return LongWAVLTree.this._keys[node];
+		}
+
+		@Override
+		void set(int node, long key) {
+			LongWAVLTree.this._keys[node] = key;
+		}
+	};
+
+	@SuppressWarnings("unchecked")
+	private V getValue(int node) {
+		return (V) this._values[node];
+	}
+
+	/**
+	 * public V search(long k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree otherwise,
+	 * returns null
+	 */
+	public V search(long k) {
+		return getValue(getNodeByPrimitiveKey(this._primitiveKeys, k));
+	}
+
+	/**
+	 * public int insert(long k, V i)
+	 *
+	 * inserts an item with key k and info i to the WAVL tree. returns the number
+	 * of rebalancing operations, or -1 if an item with key k already exists in the
+	 * tree.
+	 */
+	public int insert(long k, V i) {
+		int node = insertPrimitiveKey(this._primitiveKeys, k);
+		if (node == EXTERNAL)
+			return -1;
+		this._values[node] = i;
+		return rebalanceInsertedLeaf(node);
+	}
+
+	/**
+	 * public int delete(long k)
+	 *
+	 * deletes an item with key k from the tree, if it is there. returns the number
+	 * of rebalancing operations, or -1 if an item with key k was not found in the
+	 * tree.
+	 */
+	public int delete(long k) {
+		return deletePrimitiveKey(this._primitiveKeys, k);
+	}
+
+	/**
+	 * public V min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree, or null if
+	 * the tree is empty
+	 */
+	public V min() {
+		return getValue(getMinNode());
+	}
+
+	/**
+	 * public V max()
+	 *
+	 * Returns the info of the item with the largest key in the tree, or null if the
+	 * tree is empty
+	 */
+	public V max() {
+		return getValue(getMaxNode());
+	}
+
+	/**
+	 * public long[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree, or an empty array
+	 * if the tree is empty.
+	 */
+	public long[] keysToArray() {
+		long[] arr = new long[size()];
+		int index = 0;
+		for (int node = getMinNode(); node != EXTERNAL; node = successor(node))
+			arr[index++] = this._keys[node];
+		return arr;
+	}
+
+	/**
+	 * public V[] infoToArray(IntFunction<V[]> generator)
+	 *
+	 * Returns an array created by generator which contains all info in the tree,
+	 * sorted by their respective keys.
+	 */
+	public V[] infoToArray(IntFunction<V[]> generator) {
+		V[] arr = generator.apply(size());
+		int index = 0;
+		for (int node = getMinNode(); node != EXTERNAL; node = successor(node))
+			arr[index++] = getValue(node);
+		return arr;
+	}
+
+	/**
+	 * public V select(int i)
+	 *
+	 * Returns the value of the i'th smallest key, or null if i is out of range.
+	 * select(1) returns the value of the node with minimal key
+	 *
+	 */
+	public V select(int i) {
+		return getValue(selectNode(i));
+	}
+}
@@ -0,0 +1,518 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * MappedWAVLTree
+ *
+ * A WAVL Tree whose nodes live in a memory mapped file instead of the heap, so
+ * it can outgrow the heap and be reopened after a restart without inserting
+ * the keys again. Values are appended to a separate value log next to the node
+ * file, the node only stores the offset of its value.
+ *
+ * The node file starts with a header followed by fixed size node records,
+ * mapped in segments of 2^16 records. Opening an existing file checks the
+ * WAVL invariants of the stored tree and fails with an IOException if they do
+ * not hold, e.g. after a crash in the middle of a rebalance.
+ *
+ */
+
+public class MappedWAVLTree extends IndexedWAVLTree implements Closeable {
+	private static final int MAGIC = 0x5741564C;
+	private static final int VERSION = 1;
+
+	private static final int HEADER_BYTES = 64;
+	private static final int HEADER_MAGIC = 0;
+	private static final int HEADER_VERSION = 4;
+	private static final int HEADER_ROOT = 8;
+	private static final int HEADER_FREE_LIST = 12;
+	private static final int HEADER_NEXT_UNUSED = 16;
+
+	private static final int NODE_BYTES = 32;
+	private static final int NODE_KEY = 0;
+	private static final int NODE_LEFT = 4;
+	private static final int NODE_RIGHT = 8;
+	private static final int NODE_PARENT = 12;
+	private static final int NODE_DIFFS = 16;
+	private static final int NODE_SIZE = 20;
+	private static final int NODE_VALUE = 24;
+
+	private static final int SEGMENT_SHIFT = 16;
+	private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+	private static final long SEGMENT_BYTES = (long) NODE_BYTES << SEGMENT_SHIFT;
+
+	private static final long NULL_VALUE = -1;
+
+	/**
+	 * the initial size of the buffer values are read into, large enough that
+	 * most values are read together with their length
+	 */
+	private static final int VALUE_BUFFER_BYTES = 256;
+
+	private final FileChannel _nodeChannel;
+	private final FileChannel _valueChannel;
+	private final MappedByteBuffer _header;
+	private final List<MappedByteBuffer> _segments;
+	private long _valueLogEnd;
+	private ByteBuffer _valueBuffer;
+
+	/**
+	 * opens the tree stored in file, or creates an empty one if the file does not
+	 * exist. the value log is kept in a sibling file with the suffix ".values"
+	 */
+
+	public MappedWAVLTree(Path file) throws IOException {
+		this._nodeChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this._valueChannel = FileChannel.open(file.resolveSibling(file.getFileName() + ".values"),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this._segments = new ArrayList<>();
+		this._valueBuffer = ByteBuffer.allocate(VALUE_BUFFER_BYTES);
+
+		try {
+			boolean created = this._nodeChannel.size() == 0;
+			this._header = this._nodeChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+			this._valueLogEnd = this._valueChannel.size();
+
+			if (created)
+				initialize();
+			else
+				recover();
+		} catch (IOException | RuntimeException e) {
+			closeChannels();
+			throw e;
+		}
+	}
+
+	/**
+	 * writes the header and the external node of a new file
+	 */
+
+	private void initialize() throws IOException {
+		this._header.putInt(HEADER_MAGIC, MAGIC);
+		this._header.putInt(HEADER_VERSION, VERSION);
+		this._header.putInt(HEADER_ROOT, EXTERNAL);
+		this._header.putInt(HEADER_FREE_LIST, EXTERNAL);
+		this._header.putInt(HEADER_NEXT_UNUSED, 1);
+
+		mapSegment();
+		setLeft(EXTERNAL, EXTERNAL);
+		setRight(EXTERNAL, EXTERNAL);
+		setParent(EXTERNAL, EXTERNAL);
+		setDiffs(EXTERNAL, packDiffs(1, 1));
+		setSize(EXTERNAL, 0);
+		setValueOffset(EXTERNAL, NULL_VALUE);
+	}
+
+	/**
+	 * maps the segments of an existing file and validates the stored tree
+	 */
+
+	private void recover() throws IOException {
+		if (this._header.getInt(HEADER_MAGIC) != MAGIC)
+			throw new IOException("not a WAVL tree file");
+		if (this._header.getInt(HEADER_VERSION) != VERSION)
+			throw new IOException("unsupported WAVL tree file version " + this._header.getInt(HEADER_VERSION));
+
+		int nextUnused = this._header.getInt(HEADER_NEXT_UNUSED);
+		if (nextUnused < 1)
+			throw new IOException("corrupt WAVL tree file: " + nextUnused + " allocated nodes");
+		while ((long) this._segments.size() << SEGMENT_SHIFT < nextUnused)
+			mapSegment();
+
+		try {
+			checkInvariants();
+			checkValueOffsets();
+		} catch (RuntimeException e) {
+			throw new IOException("corrupt WAVL tree file: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * checks that the length of the value of every node lies inside the value
+	 * log. the nodes are mapped and the values written through the channel, so
+	 * after a crash a node may point past the end of the value log
+	 */
+
+	private void checkValueOffsets() {
+		for (int node = getMinNode(); node != EXTERNAL; node = successor(node)) {
+			long offset = getValueOffset(node);
+			if (offset != NULL_VALUE && (offset < 0 || offset + Integer.BYTES > this._valueLogEnd))
+				throw new IllegalStateException("value of node " + node + " at offset " + offset
+						+ " is outside the value log of " + this._valueLogEnd + " bytes");
+		}
+	}
+
+	private void mapSegment() throws IOException {
+		long position = HEADER_BYTES + this._segments.size() * SEGMENT_BYTES;
+		this._segments.add(this._nodeChannel.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT_BYTES));
+	}
+
+	/**
+	 * public void flush()
+	 *
+	 * forces all changes of nodes and values to the storage device
+	 */
+	public void flush() throws IOException {
+		this._valueChannel.force(false);
+		for (MappedByteBuffer segment : this._segments)
+			segment.force();
+		this._header.force();
+	}
+
+	/**
+	 * public void close()
+	 *
+	 * flushes the tree and closes its files, the tree must not be used afterwards
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			closeChannels();
+		}
+	}
+
+	private void closeChannels() throws IOException {
+		try {
+			this._valueChannel.close();
+		} finally {
+			this._nodeChannel.close();
+		}
+	}
+
+	private MappedByteBuffer segmentOf(int node) {
+		return this._segments.get(node >>> SEGMENT_SHIFT);
+	}
+
+	private static int offsetOf(int node, int field) {
+		return (node & SEGMENT_MASK) * NODE_BYTES + field;
+	}
+
+	private int getInt(int node, int field) {
+		return segmentOf(node).getInt(offsetOf(node, field));
+	}
+
+	private void putInt(int node, int field, int value) {
+		segmentOf(node).putInt(offsetOf(node, field), value);
+	}
+
+	private long getValueOffset(int node) {
+		return segmentOf(node).getLong(offsetOf(node, NODE_VALUE));
+	}
+
+	private void setValueOffset(int node, long offset) {
+		segmentOf(node).putLong(offsetOf(node, NODE_VALUE), offset);
+	}
+
+	@Override
+	int getRootNode() {
+		return this._header.getInt(HEADER_ROOT);
+	}
+
+	@Override
+	void setRootNode(int node) {
+		this._header.putInt(HEADER_ROOT, node);
+	}
+
+	private int getKey(int node) {
+		return getInt(node, NODE_KEY);
+	}
+
+	private void setKey(int node, int key) {
+		putInt(node, NODE_KEY, key);
+	}
+
+	/**
+	 * reads a value from the value log, values are stored as their UTF-8 length
+	 * followed by the bytes
+	 */
+
+	private String getValue(int node) {
+		long offset = getValueOffset(node);
+		if (offset == NULL_VALUE)
+			return null;
+
+		try {
+			return readValue(offset);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * reads the length and as many bytes as fit into the value buffer with one
+	 * read, and only reads again for values that do not fit. throws IOException
+	 * if the length does not fit into the value log
+	 */
+
+	private String readValue(long offset) throws IOException {
+		long available = this._valueLogEnd - offset - Integer.BYTES;
+		if (offset < 0 || available < 0)
+			throw new IOException("value offset " + offset + " is outside the value log of " + this._valueLogEnd
+					+ " bytes");
+
+		ByteBuffer buffer = this._valueBuffer;
+		buffer.clear().limit((int) Math.min(buffer.capacity(), Integer.BYTES + available));
+		readFully(buffer, offset);
+		int length = buffer.getInt(0);
+		if (length < 0 || length > available || length > Integer.MAX_VALUE - Integer.BYTES)
+			throw new IOException("corrupt value length " + length + " at offset " + offset);
+
+		if (Integer.BYTES + length > buffer.capacity()) {
+			buffer.flip();
+			buffer = ByteBuffer.allocate(Math.max(Integer.BYTES + length, 2 * buffer.capacity())).put(buffer);
+			buffer.limit(Integer.BYTES + length);
+			readFully(buffer, offset);
+			this._valueBuffer = buffer;
+		}
+		return new String(buffer.array(), Integer.BYTES, length, StandardCharsets.UTF_8);
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = this._valueChannel.read(buffer, position + buffer.position());
+			if (read < 0)
+				throw new IOException("value log is truncated at " + (position + buffer.position()));
+		}
+	}
+
+	/**
+	 * appends a value to the value log, the space of replaced values is not
+	 * reclaimed
+	 */
+
+	private void setValue(int node, String value) {
+		if (value == null) {
+			setValueOffset(node, NULL_VALUE);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+		record.putInt(bytes.length).put(bytes).flip();
+		try {
+			long offset = this._valueLogEnd;
+			while (record.hasRemaining())
+				this._valueChannel.write(record, offset + record.position());
+			this._valueLogEnd += record.limit();
+			setValueOffset(node, offset);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	int compareKeys(int node, int other) {
+		return Integer.compare(getKey(node), getKey(other));
+	}
+
+	@Override
+	void copyEntry(int from, int to) {
+		setKey(to, getKey(from));
+		setValueOffset(to, getValueOffset(from));
+	}
+
+	private final PrimitiveKeys _primitiveKeys = new PrimitiveKeys() {
+		@Override
+		long get(int node) {
+			return MappedWAVLTree.this.getKey(node);
+		}
+
+		@Override
+		void set(int node, long key) {
+			MappedWAVLTree.this.setKey(node, (int) key);
+		}
+	};
+
+	@Override
+	int getLeft(int node) {
+		return getInt(node, NODE_LEFT);
+	}
+
+	@Override
+	void setLeft(int node, int left) {
+		putInt(node, NODE_LEFT, left);
+	}
+
+	@Override
+	int getRight(int node) {
+		return getInt(node, NODE_RIGHT);
+	}
+
+	@Override
+	void setRight(int node, int right) {
+		putInt(node, NODE_RIGHT, right);
+	}
+
+	@Override
+	int getParent(int node) {
+		return getInt(node, NODE_PARENT);
+	}
+
+	@Override
+	void setParent(int node, int parent) {
+		putInt(node, NODE_PARENT, parent);
+	}
+
+	@Override
+	int getDiffs(int node) {
+		return getInt(node, NODE_DIFFS);
+	}
+
+	@Override
+	void setDiffs(int node, int diffs) {
+		putInt(node, NODE_DIFFS, diffs);
+	}
+
+	@Override
+	int getSize(int node) {
+		return getInt(node, NODE_SIZE);
+	}
+
+	@Override
+	void setSize(int node, int size) {
+		putInt(node, NODE_SIZE, size);
+	}
+
+	/**
+	 * takes a node from the free list, or the next unused record, mapping a new
+	 * segment when the current ones are full
+	 */
+
+	@Override
+	int allocateNode() {
+		int node = this._header.getInt(HEADER_FREE_LIST);
+		if (node != EXTERNAL) {
+			this._header.putInt(HEADER_FREE_LIST, getLeft(node));
+			return node;
+		}
+
+		node = this._header.getInt(HEADER_NEXT_UNUSED);
+		if (node == Integer.MAX_VALUE)
+			throw new IllegalStateException("tree is full");
+		if (node >>> SEGMENT_SHIFT == this._segments.size()) {
+			try {
+				mapSegment();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		this._header.putInt(HEADER_NEXT_UNUSED, node + 1);
+		return node;
+	}
+
+	/**
+	 * returns a removed node to the free list, its left slot links the list
+	 */
+
+	@Override
+	void releaseNode(int node) {
+		setValueOffset(node, NULL_VALUE);
+		setLeft(node, this._header.getInt(HEADER_FREE_LIST));
+		this._header.putInt(HEADER_FREE_LIST, node);
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree otherwise,
+	 * returns null
+	 */
+	public String search(int k) {
+		return getValue(getNodeByPrimitiveKey(this._primitiveKeys, k));
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the WAVL tree. the tree must remain
+	 * valid (keep its invariants). returns the number of rebalancing operations, or
+	 * 0 if no rebalancing operations were necessary. returns -1 if an item with key
+	 * k already exists in the tree.
+	 */
+	public int insert(int k, String i) {
+		int node = insertPrimitiveKey(this._primitiveKeys, k);
+		if (node == EXTERNAL)
+			return -1;
+		setValue(node, i);
+		return rebalanceInsertedLeaf(node);
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the binary tree, if it is there; the tree
+	 * must remain valid (keep its invariants). returns the number of rebalancing
+	 * operations, or 0 if no rebalancing operations were needed. returns -1 if an
+	 * item with key k was not found in the tree.
+	 */
+	public int delete(int k) {
+		return deletePrimitiveKey(this._primitiveKeys, k);
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree, or null if
+	 * the tree is empty
+	 */
+	public String min() {
+		return getValue(getMinNode());
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree, or null if the
+	 * tree is empty
+	 */
+	public String max() {
+		return getValue(getMaxNode());
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree, or an empty array
+	 * if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		return intKeysToArray(this._primitiveKeys);
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree, sorted by their
+	 * respective keys, or an empty array if the tree is empty.
+	 */
+	public String[] infoToArray() {
+		String[] arr = new String[size()];
+		int index = 0;
+		for (int node = getMinNode(); node != EXTERNAL; node = successor(node))
+			arr[index++] = getValue(node);
+		return arr;
+	}
+
+	/**
+	 * public int select(int i)
+	 *
+	 * Returns the value of the i'th smallest key (return null if tree is empty or
+	 * i is out of range). select(1) returns the value of the node with minimal key
+	 *
+	 */
+	public String select(int i) {
+		return getValue(selectNode(i));
+	}
+}
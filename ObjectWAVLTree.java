@@ -0,0 +1,191 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.function.IntFunction;
+
+/**
+ *
+ * ObjectWAVLTree
+ *
+ * A WAVL Tree with keys and values of any type, ordered by a Comparator and
+ * stored in parallel arrays like ArrayWAVLTree.
+ *
+ */
+
+public class ObjectWAVLTree<K, V> extends ArrayIndexedWAVLTree {
+	private final Comparator<? super K> _comparator;
+	private Object[] _keys;
+	private Object[] _values;
+
+	public ObjectWAVLTree(Comparator<? super K> comparator) {
+		this(comparator, INITIAL_CAPACITY);
+	}
+
+	/**
+	 * creates an empty tree ordered by comparator, with room for capacity keys
+	 * before the arrays have to grow
+	 */
+
+	public ObjectWAVLTree(Comparator<? super K> comparator, int capacity) {
+		super(capacity);
+		this._comparator = Objects.requireNonNull(comparator, "comparator");
+		this._keys = new Object[capacity + 1];
+		this._values = new Object[capacity + 1];
+	}
+
+	@Override
+	void growEntries(int length) {
+		this._keys = Arrays.copyOf(this._keys, length);
+		this._values = Arrays.copyOf(this._values, length);
+	}
+
+	@Override
+	void clearEntry(int node) {
+		this._keys[node] = null;
+		this._values[node] = null;
+	}
+
+	@Override
+	int compareKeys(int node, int other) {
+		return this._comparator.compare(getKey(node), getKey(other));
+	}
+
+	@Override
+	void copyEntry(int from, int to) {
+		this._keys[to] = this._keys[from];
+		this._values[to] = this._values[from];
+	}
+
+	@SuppressWarnings("unchecked")
+	private K getKey(int node) {
+		return (K) this._keys[node];
+	}
+
+	@SuppressWarnings("unchecked")
+	private V getValue(int node) {
+		return (V) this._values[node];
+	}
+
+	/**
+	 * public V search(K k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree otherwise,
+	 * returns null
+	 */
+	public V search(K k) {
+		return getValue(getNodeByKey(k));
+	}
+
+	/**
+	 * search by key in the tree returns the node with the given key, or EXTERNAL
+	 * if there is none
+	 */
+
+	private int getNodeByKey(K key) {
+		int node = getRootNode();
+		while (node != EXTERNAL) {
+			int order = this._comparator.compare(getKey(node), key);
+
+			if (order == 0)
+				return node;
+
+			node = order > 0 ? getLeft(node) : getRight(node);
+		}
+		return EXTERNAL;
+	}
+
+	/**
+	 * public int insert(K k, V i)
+	 *
+	 * inserts an item with key k and info i to the WAVL tree. returns the number
+	 * of rebalancing operations, or -1 if an item with an equal key already exists
+	 * in the tree.
+	 */
+	public int insert(K k, V i) {
+		int parent = EXTERNAL;
+		boolean left = false;
+		for (int node = getRootNode(); node != EXTERNAL; node = left ? getLeft(node) : getRight(node)) {
+			int order = this._comparator.compare(getKey(node), k);
+			if (order == 0)
+				return -1;
+			parent = node;
+			left = order > 0;
+		}
+
+		int node = newLeaf(parent, left);
+		this._keys[node] = k;
+		this._values[node] = i;
+		return rebalanceInsertedLeaf(node);
+	}
+
+	/**
+	 * public int delete(K k)
+	 *
+	 * deletes an item with key k from the tree, if it is there. returns the number
+	 * of rebalancing operations, or -1 if an item with key k was not found in the
+	 * tree.
+	 */
+	public int delete(K k) {
+		int node = getNodeByKey(k);
+		return node == EXTERNAL ? -1 : removeNode(node);
+	}
+
+	/**
+	 * public V min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree, or null if
+	 * the tree is empty
+	 */
+	public V min() {
+		return getValue(getMinNode());
+	}
+
+	/**
+	 * public V max()
+	 *
+	 * Returns the info of the item with the largest key in the tree, or null if the
+	 * tree is empty
+	 */
+	public V max() {
+		return getValue(getMaxNode());
+	}
+
+	/**
+	 * public K[] keysToArray(IntFunction<K[]> generator)
+	 *
+	 * Returns an array created by generator which contains all keys in the tree
+	 * in increasing order.
+	 */
+	public K[] keysToArray(IntFunction<K[]> generator) {
+		K[] arr = generator.apply(size());
+		int index = 0;
+		for (int node = getMinNode(); node != EXTERNAL; node = successor(node))
+			arr[index++] = getKey(node);
+		return arr;
+	}
+
+	/**
+	 * public V[] infoToArray(IntFunction<V[]> generator)
+	 *
+	 * Returns an array created by generator which contains all info in the tree,
+	 * sorted by their respective keys.
+	 */
+	public V[] infoToArray(IntFunction<V[]> generator) {
+		V[] arr = generator.apply(size());
+		int index = 0;
+		for (int node = getMinNode(); node != EXTERNAL; node = successor(node))
+			arr[index++] = getValue(node);
+		return arr;
+	}
+
+	/**
+	 * public V select(int i)
+	 *
+	 * Returns the value of the i'th smallest key, or null if i is out of range.
+	 * select(1) returns the value of the node with minimal key
+	 *
+	 */
+	public V select(int i) {
+		return getValue(selectNode(i));
+	}
+}
@@ -0,0 +1,598 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * PersistentWAVLTree
+ *
+ * A WAVL Tree with the same interface as WAVLTree whose versions can be kept
+ * with snapshot() in O(1). Nodes have no parent pointers and store their rank,
+ * insert and delete rebalance on the way back up a recursive descent and copy
+ * only the nodes on that path.
+ *
+ * Every tree owns an epoch, and nodes remember the epoch of the tree that
+ * created them. A tree changes its own nodes in place and copies the others,
+ * so taking a snapshot just gives the tree and the snapshot new epochs, after
+ * which the nodes they share are copied on their next change. A snapshot is
+ * never changed by the tree it was taken from, so it can be read by another
+ * thread while the tree is modified, once it is handed over safely.
+ *
+ */
+
+public class PersistentWAVLTree {
+	private static final AtomicLong EPOCHS = new AtomicLong();
+
+	private Node _root;
+	private long _epoch;
+
+	/**
+	 * the number of rebalancing steps, and whether the tree changed, during the
+	 * running insert or delete
+	 */
+	private int _steps;
+	private boolean _changed;
+
+	public PersistentWAVLTree() {
+		this(null);
+	}
+
+	private PersistentWAVLTree(Node root) {
+		this._root = root;
+		this._epoch = EPOCHS.incrementAndGet();
+	}
+
+	/**
+	 * public PersistentWAVLTree snapshot()
+	 *
+	 * Returns a tree with the current items of this tree in O(1). Later changes to
+	 * either tree are not seen by the other one.
+	 *
+	 */
+	public PersistentWAVLTree snapshot() {
+		PersistentWAVLTree snapshot = new PersistentWAVLTree(this._root);
+		this._epoch = EPOCHS.incrementAndGet();
+		return snapshot;
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 *
+	 */
+	public boolean empty() {
+		return this._root == null;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree otherwise,
+	 * returns null
+	 */
+	public String search(int k) {
+		Node node = this._root;
+		while (node != null) {
+			if (node._key == k)
+				return node._value;
+			node = node._key > k ? node._left : node._right;
+		}
+		return null;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the WAVL tree. the tree must remain
+	 * valid (keep its invariants). returns the number of rebalancing operations, or
+	 * 0 if no rebalancing operations were necessary. returns -1 if an item with key
+	 * k already exists in the tree.
+	 */
+	public int insert(int k, String i) {
+		this._steps = 0;
+		this._changed = false;
+
+		Node root = insert(this._root, k, i);
+		if (!this._changed)
+			return -1;
+
+		this._root = root;
+		return this._steps;
+	}
+
+	/**
+	 * inserts the item into the subtree of node and returns the new root of the
+	 * subtree
+	 */
+
+	private Node insert(Node node, int k, String value) {
+		if (node == null) {
+			this._changed = true;
+			return new Node(k, value, this._epoch);
+		}
+
+		if (k == node._key)
+			return node;
+
+		if (k < node._key) {
+			Node left = insert(node._left, k, value);
+			if (!this._changed)
+				return node;
+
+			node = writable(node);
+			node._left = left;
+			node._size++;
+			return rebalanceInsertedLeft(node);
+		}
+
+		Node right = insert(node._right, k, value);
+		if (!this._changed)
+			return node;
+
+		node = writable(node);
+		node._right = right;
+		node._size++;
+		return rebalanceInsertedRight(node);
+	}
+
+	/**
+	 * fixes node after its left subtree grew, returns the new root of the subtree
+	 */
+
+	private Node rebalanceInsertedLeft(Node node) {
+		if (rankOf(node._left) != node._rank)
+			return node;
+
+		if (node._rank - rankOf(node._right) == 1) { // case1: promote
+			node._rank++;
+			this._steps += 1;
+			return node;
+		}
+
+		Node child = writable(node._left);
+		node._left = child;
+		if (child._rank - rankOf(child._right) == 2) { // case2: single rotation
+			node._rank--;
+			this._steps += 2;
+			return rotateRight(node);
+		}
+
+		Node grandchild = writable(child._right); // case3: double rotation
+		child._right = grandchild;
+		grandchild._rank++;
+		child._rank--;
+		node._rank--;
+		node._left = rotateLeft(child);
+		this._steps += 5;
+		return rotateRight(node);
+	}
+
+	/**
+	 * fixes node after its right subtree grew, returns the new root of the subtree
+	 */
+
+	private Node rebalanceInsertedRight(Node node) {
+		if (rankOf(node._right) != node._rank)
+			return node;
+
+		if (node._rank - rankOf(node._left) == 1) { // case1: promote
+			node._rank++;
+			this._steps += 1;
+			return node;
+		}
+
+		Node child = writable(node._right);
+		node._right = child;
+		if (child._rank - rankOf(child._left) == 2) { // case2: single rotation
+			node._rank--;
+			this._steps += 2;
+			return rotateLeft(node);
+		}
+
+		Node grandchild = writable(child._left); // case3: double rotation
+		child._left = grandchild;
+		grandchild._rank++;
+		child._rank--;
+		node._rank--;
+		node._right = rotateRight(child);
+		this._steps += 5;
+		return rotateLeft(node);
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the binary tree, if it is there; the tree
+	 * must remain valid (keep its invariants). returns the number of rebalancing
+	 * operations, or 0 if no rebalancing operations were needed. returns -1 if an
+	 * item with key k was not found in the tree.
+	 */
+	public int delete(int k) {
+		this._steps = 0;
+		this._changed = false;
+
+		Node root = delete(this._root, k);
+		if (!this._changed)
+			return -1;
+
+		this._root = root;
+		return this._steps;
+	}
+
+	/**
+	 * deletes key k from the subtree of node and returns the new root of the
+	 * subtree. a binary node takes the item of its successor, which is deleted
+	 * from the right subtree instead
+	 */
+
+	private Node delete(Node node, int k) {
+		if (node == null)
+			return null;
+
+		if (k < node._key) {
+			Node left = delete(node._left, k);
+			if (!this._changed)
+				return node;
+
+			node = writable(node);
+			node._left = left;
+			node._size--;
+			return rebalanceDeletedLeft(node);
+		}
+
+		if (k > node._key) {
+			Node right = delete(node._right, k);
+			if (!this._changed)
+				return node;
+
+			node = writable(node);
+			node._right = right;
+			node._size--;
+			return rebalanceDeletedRight(node);
+		}
+
+		this._changed = true;
+		if (node._left == null)
+			return node._right;
+		if (node._right == null)
+			return node._left;
+
+		node = writable(node);
+		Node successor = node._right;
+		while (successor._left != null)
+			successor = successor._left;
+		node._key = successor._key;
+		node._value = successor._value;
+		node._right = deleteMin(node._right);
+		node._size--;
+		return rebalanceDeletedRight(node);
+	}
+
+	private Node deleteMin(Node node) {
+		if (node._left == null)
+			return node._right;
+
+		node = writable(node);
+		node._left = deleteMin(node._left);
+		node._size--;
+		return rebalanceDeletedLeft(node);
+	}
+
+	/**
+	 * fixes node after its left subtree shrank, returns the new root of the
+	 * subtree
+	 */
+
+	private Node rebalanceDeletedLeft(Node node) {
+		int leftDiff = node._rank - rankOf(node._left);
+		int rightDiff = node._rank - rankOf(node._right);
+
+		if (leftDiff == 2 && rightDiff == 2 && node._right == null) { // leaf (2,2): demote
+			node._rank--;
+			this._steps += 1;
+			return node;
+		}
+		if (leftDiff < 3)
+			return node;
+
+		if (rightDiff == 2) { // case1: demote
+			node._rank--;
+			this._steps += 1;
+			return node;
+		}
+
+		Node sibling = node._right;
+		int siblingLeftDiff = sibling._rank - rankOf(sibling._left);
+		int siblingRightDiff = sibling._rank - rankOf(sibling._right);
+
+		if (siblingLeftDiff == 2 && siblingRightDiff == 2) { // case2: double demote
+			sibling = writable(sibling);
+			node._right = sibling;
+			sibling._rank--;
+			node._rank--;
+			this._steps += 2;
+			return node;
+		}
+
+		sibling = writable(sibling);
+		node._right = sibling;
+		if (siblingRightDiff == 1) { // case3: single rotation
+			sibling._rank++;
+			node._rank--;
+			this._steps += 3;
+			if (node._rank - rankOf(node._left) == 2 && node._rank - rankOf(sibling._left) == 2) {
+				node._rank--;
+				this._steps += 1;
+			}
+			return rotateLeft(node);
+		}
+
+		Node nephew = writable(sibling._left); // case4: double rotation
+		sibling._left = nephew;
+		nephew._rank += 2;
+		sibling._rank--;
+		node._rank -= 2;
+		node._right = rotateRight(sibling);
+		this._steps += 5;
+		return rotateLeft(node);
+	}
+
+	/**
+	 * fixes node after its right subtree shrank, returns the new root of the
+	 * subtree
+	 */
+
+	private Node rebalanceDeletedRight(Node node) {
+		int leftDiff = node._rank - rankOf(node._left);
+		int rightDiff = node._rank - rankOf(node._right);
+
+		if (leftDiff == 2 && rightDiff == 2 && node._left == null) { // leaf (2,2): demote
+			node._rank--;
+			this._steps += 1;
+			return node;
+		}
+		if (rightDiff < 3)
+			return node;
+
+		if (leftDiff == 2) { // case1: demote
+			node._rank--;
+			this._steps += 1;
+			return node;
+		}
+
+		Node sibling = node._left;
+		int siblingLeftDiff = sibling._rank - rankOf(sibling._left);
+		int siblingRightDiff = sibling._rank - rankOf(sibling._right);
+
+		if (siblingLeftDiff == 2 && siblingRightDiff == 2) { // case2: double demote
+			sibling = writable(sibling);
+			node._left = sibling;
+			sibling._rank--;
+			node._rank--;
+			this._steps += 2;
+			return node;
+		}
+
+		sibling = writable(sibling);
+		node._left = sibling;
+		if (siblingLeftDiff == 1) { // case3: single rotation
+			sibling._rank++;
+			node._rank--;
+			this._steps += 3;
+			if (node._rank - rankOf(node._right) == 2 && node._rank - rankOf(sibling._right) == 2) {
+				node._rank--;
+				this._steps += 1;
+			}
+			return rotateRight(node);
+		}
+
+		Node nephew = writable(sibling._right); // case4: double rotation
+		sibling._right = nephew;
+		nephew._rank += 2;
+		sibling._rank--;
+		node._rank -= 2;
+		node._left = rotateLeft(sibling);
+		this._steps += 5;
+		return rotateRight(node);
+	}
+
+	/**
+	 * rotates the writable left child of a writable node above it, returns the
+	 * child
+	 */
+
+	private static Node rotateRight(Node node) {
+		Node child = node._left;
+		node._left = child._right;
+		child._right = node;
+		node._size = sizeOf(node._left) + sizeOf(node._right) + 1;
+		child._size = sizeOf(child._left) + node._size + 1;
+		return child;
+	}
+
+	/**
+	 * rotates the writable right child of a writable node above it, returns the
+	 * child
+	 */
+
+	private static Node rotateLeft(Node node) {
+		Node child = node._right;
+		node._right = child._left;
+		child._left = node;
+		node._size = sizeOf(node._left) + sizeOf(node._right) + 1;
+		child._size = node._size + sizeOf(child._right) + 1;
+		return child;
+	}
+
+	/**
+	 * returns node if this tree owns it, otherwise a copy owned by this tree
+	 */
+
+	private Node writable(Node node) {
+		return node._epoch == this._epoch ? node : new Node(node, this._epoch);
+	}
+
+	private static int rankOf(Node node) {
+		return node == null ? -1 : node._rank;
+	}
+
+	private static int sizeOf(Node node) {
+		return node == null ? 0 : node._size;
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree, or null if
+	 * the tree is empty
+	 */
+	public String min() {
+		Node node = this._root;
+		if (node == null)
+			return null;
+		while (node._left != null)
+			node = node._left;
+		return node._value;
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree, or null if the
+	 * tree is empty
+	 */
+	public String max() {
+		Node node = this._root;
+		if (node == null)
+			return null;
+		while (node._right != null)
+			node = node._right;
+		return node._value;
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree, or an empty array
+	 * if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		int[] keys = new int[size()];
+		forEach(new WAVLTree.KeyValueConsumer() {
+			private int _index;
+
+			@Override
+			public void accept(int key, String value) {
+				keys[this._index++] = key;
+			}
+		});
+		return keys;
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree, sorted by their
+	 * respective keys, or an empty array if the tree is empty.
+	 */
+	public String[] infoToArray() {
+		String[] values = new String[size()];
+		forEach(new WAVLTree.KeyValueConsumer() {
+			private int _index;
+
+			@Override
+			public void accept(int key, String value) {
+				values[this._index++] = value;
+			}
+		});
+		return values;
+	}
+
+	/**
+	 * public void forEach(WAVLTree.KeyValueConsumer action)
+	 *
+	 * passes the key and info of every item to action, in increasing key order
+	 */
+	public void forEach(WAVLTree.KeyValueConsumer action) {
+		forEach(this._root, action);
+	}
+
+	private static void forEach(Node node, WAVLTree.KeyValueConsumer action) {
+		while (node != null) {
+			forEach(node._left, action);
+			action.accept(node._key, node._value);
+			node = node._right;
+		}
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the tree.
+	 *
+	 */
+	public int size() {
+		return sizeOf(this._root);
+	}
+
+	/**
+	 * public int treeRank()
+	 *
+	 * Returns the rank of the root, or -1 if the tree is empty
+	 *
+	 */
+	public int treeRank() {
+		return rankOf(this._root);
+	}
+
+	/**
+	 * public String select(int i)
+	 *
+	 * Returns the info of the i'th smallest key in the tree, or null if there is
+	 * no such key
+	 */
+	public String select(int i) {
+		i--;
+		if (i < 0 || i >= size())
+			return null;
+
+		Node node = this._root;
+		while (true) {
+			int leftSize = sizeOf(node._left);
+			if (i == leftSize)
+				return node._value;
+			if (i < leftSize)
+				node = node._left;
+			else {
+				i = i - leftSize - 1;
+				node = node._right;
+			}
+		}
+	}
+
+	private static final class Node {
+		private int _key;
+		private String _value;
+		private Node _left;
+		private Node _right;
+		private int _rank;
+		private int _size;
+		private final long _epoch;
+
+		Node(int key, String value, long epoch) {
+			this._key = key;
+			this._value = value;
+			this._size = 1;
+			this._epoch = epoch;
+		}
+
+		Node(Node node, long epoch) {
+			this._key = node._key;
+			this._value = node._value;
+			this._left = node._left;
+			this._right = node._right;
+			this._rank = node._rank;
+			this._size = node._size;
+			this._epoch = epoch;
+		}
+	}
+}
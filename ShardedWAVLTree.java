@@ -0,0 +1,527 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ *
+ * ShardedWAVLTree
+ *
+ * A thread safe WAVL Tree that partitions the key range into shards, each an
+ * independent WAVLTree with its own lock, so writes to different shards run
+ * in parallel. The shards are listed in a directory that is replaced as a
+ * whole when they change: a shard that grows larger than the maximal shard
+ * size is split at its median key, and a shard that shrinks is joined with a
+ * neighbour. Both take O(log n) and lock only the shards involved.
+ *
+ * Operations on one key are linearizable. Operations over several shards
+ * (size, select, rank, the arrays and forEach) lock one shard at a time and
+ * are weakly consistent: they see every change that completed before they
+ * started and may or may not see the ones that run at the same time.
+ *
+ */
+
+public class ShardedWAVLTree {
+	/**
+	 * the maximal shard size unless the tree is created with another one
+	 */
+	public static final int DEFAULT_MAX_SHARD_SIZE = 1 << 16;
+
+	/**
+	 * a shard smaller than 1 / MERGE_FRACTION of the maximal shard size is joined
+	 * with a neighbour, unless that would make the joined shard larger than half
+	 * the maximal shard size
+	 */
+	private static final int MERGE_FRACTION = 8;
+
+	private final int _maxShardSize;
+	private final int _minShards;
+
+	/**
+	 * serializes the changes of the directory
+	 */
+	private final Object _reshardLock;
+	private volatile Directory _directory;
+
+	/**
+	 * public ShardedWAVLTree(int shards)
+	 *
+	 * creates an empty tree whose key range is divided into shards equal parts,
+	 * with the default maximal shard size
+	 */
+	public ShardedWAVLTree(int shards) {
+		this(shards, DEFAULT_MAX_SHARD_SIZE);
+	}
+
+	/**
+	 * public ShardedWAVLTree(int shards, int maxShardSize)
+	 *
+	 * creates an empty tree whose key range is divided into shards equal parts. a
+	 * shard with more than maxShardSize keys is split in two. shards are only
+	 * joined while there are more than the initial number of them
+	 */
+	public ShardedWAVLTree(int shards, int maxShardSize) {
+		if (shards < 1)
+			throw new IllegalArgumentException("number of shards must be positive: " + shards);
+		if (maxShardSize < 2)
+			throw new IllegalArgumentException("maximal shard size must be at least 2: " + maxShardSize);
+
+		this._maxShardSize = maxShardSize;
+		this._minShards = shards;
+		this._reshardLock = new Object();
+
+		int[] lows = new int[shards];
+		Shard[] parts = new Shard[shards];
+		long width = (1L << 32) / shards;
+		for (int s = 0; s < shards; s++) {
+			lows[s] = (int) (Integer.MIN_VALUE + s * width);
+			parts[s] = new Shard(new WAVLTree());
+		}
+		this._directory = new Directory(lows, parts);
+	}
+
+	/**
+	 * one part of the key range. _size mirrors the size of the tree so that other
+	 * threads can read it without the lock. a retired shard was replaced in the
+	 * directory, a thread that locks it has to look its key up again
+	 */
+
+	private static class Shard {
+		final WAVLTree _tree;
+		final StampedLock _lock;
+		volatile int _size;
+		boolean _retired;
+
+		Shard(WAVLTree tree) {
+			this._tree = tree;
+			this._lock = new StampedLock();
+			this._size = tree.size();
+		}
+	}
+
+	/**
+	 * the shards in key order. shard s holds the keys from _lows[s] up to but not
+	 * including _lows[s + 1], _lows[0] is Integer.MIN_VALUE. never changed once
+	 * published
+	 */
+
+	private static class Directory {
+		final int[] _lows;
+		final Shard[] _shards;
+
+		Directory(int[] lows, Shard[] shards) {
+			this._lows = lows;
+			this._shards = shards;
+		}
+
+		int indexOf(int key) {
+			int index = Arrays.binarySearch(this._lows, key);
+			return index >= 0 ? index : -index - 2;
+		}
+	}
+
+	/**
+	 * locks the shard of key for writing, looking the key up again as long as
+	 * the locked shard turns out to be retired. returns the write stamp, the
+	 * shard is in holder[0]
+	 */
+
+	private long lockShardForWrite(int key, Shard[] holder) {
+		while (true) {
+			Directory directory = this._directory;
+			Shard shard = directory._shards[directory.indexOf(key)];
+			long stamp = shard._lock.writeLock();
+			if (!shard._retired) {
+				holder[0] = shard;
+				return stamp;
+			}
+			shard._lock.unlockWrite(stamp);
+		}
+	}
+
+	private long lockShardForRead(int key, Shard[] holder) {
+		while (true) {
+			Directory directory = this._directory;
+			Shard shard = directory._shards[directory.indexOf(key)];
+			long stamp = shard._lock.readLock();
+			if (!shard._retired) {
+				holder[0] = shard;
+				return stamp;
+			}
+			shard._lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree otherwise,
+	 * returns null
+	 */
+	public String search(int k) {
+		Shard[] holder = new Shard[1];
+		long stamp = lockShardForRead(k, holder);
+		try {
+			return holder[0]._tree.search(k);
+		} finally {
+			holder[0]._lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i into its shard under the lock of the
+	 * shard. returns the number of rebalancing operations, or -1 if an item with
+	 * key k already exists in the tree. splits the shard if it grew too large
+	 */
+	public int insert(int k, String i) {
+		Shard[] holder = new Shard[1];
+		long stamp = lockShardForWrite(k, holder);
+		Shard shard = holder[0];
+		int steps;
+		int size;
+		try {
+			steps = shard._tree.insert(k, i);
+			size = shard._tree.size();
+			shard._size = size;
+		} finally {
+			shard._lock.unlockWrite(stamp);
+		}
+
+		if (size > this._maxShardSize)
+			splitShard(shard);
+		return steps;
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from its shard under the lock of the shard.
+	 * returns the number of rebalancing operations, or -1 if an item with key k
+	 * was not found in the tree. joins the shard with a neighbour if it became
+	 * small
+	 */
+	public int delete(int k) {
+		Shard[] holder = new Shard[1];
+		long stamp = lockShardForWrite(k, holder);
+		Shard shard = holder[0];
+		int steps;
+		int size;
+		try {
+			steps = shard._tree.delete(k);
+			size = shard._tree.size();
+			shard._size = size;
+		} finally {
+			shard._lock.unlockWrite(stamp);
+		}
+
+		if (steps != -1 && size < this._maxShardSize / MERGE_FRACTION)
+			mergeShard(shard);
+		return steps;
+	}
+
+	/**
+	 * splits shard at its median key into two shards, if it is still in the
+	 * directory and still too large
+	 */
+
+	private void splitShard(Shard shard) {
+		synchronized (this._reshardLock) {
+			Directory directory = this._directory;
+			int index = indexOfShard(directory, shard);
+			if (index < 0)
+				return;
+
+			long stamp = shard._lock.writeLock();
+			try {
+				int size = shard._tree.size();
+				if (size <= this._maxShardSize)
+					return;
+
+				int median = shard._tree.selectNodeFromRoot(size / 2 + 1).getKey();
+				WAVLTree[] parts = shard._tree.split(median);
+
+				int count = directory._shards.length;
+				int[] lows = new int[count + 1];
+				Shard[] shards = new Shard[count + 1];
+				System.arraycopy(directory._lows, 0, lows, 0, index + 1);
+				System.arraycopy(directory._shards, 0, shards, 0, index);
+				lows[index + 1] = median;
+				shards[index] = new Shard(parts[0]);
+				shards[index + 1] = new Shard(parts[1]);
+				System.arraycopy(directory._lows, index + 1, lows, index + 2, count - index - 1);
+				System.arraycopy(directory._shards, index + 1, shards, index + 2, count - index - 1);
+
+				this._directory = new Directory(lows, shards);
+				shard._retired = true;
+			} finally {
+				shard._lock.unlockWrite(stamp);
+			}
+		}
+	}
+
+	/**
+	 * joins shard with its smaller neighbour, if it is still in the directory,
+	 * still small, there are more shards than initially and the joined shard
+	 * would not be too large
+	 */
+
+	private void mergeShard(Shard shard) {
+		synchronized (this._reshardLock) {
+			Directory directory = this._directory;
+			int index = indexOfShard(directory, shard);
+			int count = directory._shards.length;
+			if (index < 0 || count <= this._minShards)
+				return;
+
+			// the left one of the two shards to join
+			int left;
+			if (index == 0)
+				left = 0;
+			else if (index == count - 1)
+				left = index - 1;
+			else
+				left = directory._shards[index - 1]._size <= directory._shards[index + 1]._size ? index - 1 : index;
+
+			Shard low = directory._shards[left];
+			Shard high = directory._shards[left + 1];
+			long lowStamp = low._lock.writeLock();
+			long highStamp = high._lock.writeLock();
+			try {
+				if (shard._tree.size() >= this._maxShardSize / MERGE_FRACTION
+						|| low._tree.size() + high._tree.size() > this._maxShardSize / 2)
+					return;
+
+				WAVLTree joined;
+				WAVLTree.WAVLNode pivot = high._tree.firstNode();
+				if (pivot == null) {
+					joined = low._tree;
+				} else {
+					int key = pivot.getKey();
+					String value = pivot.getValue();
+					high._tree.delete(key);
+					joined = WAVLTree.join(low._tree, key, value, high._tree);
+				}
+
+				int[] lows = new int[count - 1];
+				Shard[] shards = new Shard[count - 1];
+				System.arraycopy(directory._lows, 0, lows, 0, left + 1);
+				System.arraycopy(directory._shards, 0, shards, 0, left);
+				shards[left] = new Shard(joined);
+				System.arraycopy(directory._lows, left + 2, lows, left + 1, count - left - 2);
+				System.arraycopy(directory._shards, left + 2, shards, left + 1, count - left - 2);
+
+				this._directory = new Directory(lows, shards);
+				low._retired = true;
+				high._retired = true;
+			} finally {
+				high._lock.unlockWrite(highStamp);
+				low._lock.unlockWrite(lowStamp);
+			}
+		}
+	}
+
+	private static int indexOfShard(Directory directory, Shard shard) {
+		for (int s = 0; s < directory._shards.length; s++) {
+			if (directory._shards[s] == shard)
+				return s;
+		}
+		return -1;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * returns the sum of the sizes of the shards, without locking
+	 */
+	public int size() {
+		int size = 0;
+		for (Shard shard : this._directory._shards)
+			size += shard._size;
+		return size;
+	}
+
+	public boolean empty() {
+		return size() == 0;
+	}
+
+	/**
+	 * public int shardCount()
+	 *
+	 * returns the current number of shards
+	 */
+	public int shardCount() {
+		return this._directory._shards.length;
+	}
+
+	/**
+	 * public String select(int i)
+	 *
+	 * Returns the info of the i'th smallest key in the tree, or null if there is
+	 * no such key. skips whole shards by their sizes and selects within the shard
+	 * that holds the key
+	 */
+	public String select(int i) {
+		retry: while (true) {
+			if (i < 1)
+				return null;
+
+			int before = 0;
+			for (Shard shard : this._directory._shards) {
+				int size = shard._size;
+				if (i - before > size) {
+					before += size;
+					continue;
+				}
+
+				long stamp = shard._lock.readLock();
+				try {
+					if (shard._retired)
+						continue retry;
+					if (i - before <= shard._tree.size())
+						return shard._tree.select(i - before);
+					before += shard._tree.size();
+				} finally {
+					shard._lock.unlockRead(stamp);
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * public int rank(int k)
+	 *
+	 * Returns the number of keys smaller than k, the sizes of the shards before
+	 * the one of k plus the rank of k in its shard
+	 */
+	public int rank(int k) {
+		while (true) {
+			Directory directory = this._directory;
+			int index = directory.indexOf(k);
+			Shard shard = directory._shards[index];
+			int before = 0;
+			for (int s = 0; s < index; s++)
+				before += directory._shards[s]._size;
+
+			long stamp = shard._lock.readLock();
+			try {
+				if (!shard._retired)
+					return before + shard._tree.rank(k);
+			} finally {
+				shard._lock.unlockRead(stamp);
+			}
+		}
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree, or null if
+	 * the tree is empty
+	 */
+	public String min() {
+		retry: while (true) {
+			for (Shard shard : this._directory._shards) {
+				long stamp = shard._lock.readLock();
+				try {
+					if (shard._retired)
+						continue retry;
+					if (!shard._tree.empty())
+						return shard._tree.min();
+				} finally {
+					shard._lock.unlockRead(stamp);
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree, or null if
+	 * the tree is empty
+	 */
+	public String max() {
+		retry: while (true) {
+			Shard[] shards = this._directory._shards;
+			for (int s = shards.length - 1; s >= 0; s--) {
+				long stamp = shards[s]._lock.readLock();
+				try {
+					if (shards[s]._retired)
+						continue retry;
+					if (!shards[s]._tree.empty())
+						return shards[s]._tree.max();
+				} finally {
+					shards[s]._lock.unlockRead(stamp);
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * public void forEach(WAVLTree.KeyValueConsumer action)
+	 *
+	 * Calls action with every key and its info in increasing key order, one shard
+	 * at a time under its read lock, so action must not change this tree. a shard
+	 * that is split or joined in the meantime is looked up again from the first
+	 * key that was not visited yet
+	 */
+	public void forEach(WAVLTree.KeyValueConsumer action) {
+		int from = Integer.MIN_VALUE;
+		while (true) {
+			Directory directory = this._directory;
+			int index = directory.indexOf(from);
+			Shard shard = directory._shards[index];
+			long stamp = shard._lock.readLock();
+			try {
+				if (shard._retired)
+					continue;
+				for (WAVLTree.WAVLNode node = shard._tree.ceilingNode(from); node != null; node = WAVLTree
+						.successor(node))
+					action.accept(node.getKey(), node.getValue());
+			} finally {
+				shard._lock.unlockRead(stamp);
+			}
+
+			if (index + 1 == directory._lows.length)
+				return;
+			from = directory._lows[index + 1];
+		}
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree, collected like
+	 * forEach
+	 */
+	public int[] keysToArray() {
+		int[][] arr = { new int[Math.max(16, size())] };
+		int[] length = { 0 };
+		forEach((key, value) -> {
+			if (length[0] == arr[0].length)
+				arr[0] = Arrays.copyOf(arr[0], arr[0].length * 2);
+			arr[0][length[0]++] = key;
+		});
+		return Arrays.copyOf(arr[0], length[0]);
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree, sorted by their
+	 * respective keys, collected like forEach
+	 */
+	public String[] infoToArray() {
+		String[][] arr = { new String[Math.max(16, size())] };
+		int[] length = { 0 };
+		forEach((key, value) -> {
+			if (length[0] == arr[0].length)
+				arr[0] = Arrays.copyOf(arr[0], arr[0].length * 2);
+			arr[0][length[0]++] = value;
+		});
+		return Arrays.copyOf(arr[0], length[0]);
+	}
+}
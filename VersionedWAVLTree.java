@@ -0,0 +1,572 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ *
+ * VersionedWAVLTree
+ *
+ * A thread safe WAVL Tree that keeps the past values of its keys, so it can be
+ * read as it was at an earlier time while writers keep changing it. Every
+ * change gets the next timestamp of a logical clock, and every key a chain of
+ * (timestamp, value) versions, newest first. A delete adds a tombstone
+ * version, the key itself stays in the tree until no reader can see it.
+ *
+ * A Snapshot pins its timestamp: the versions it reads are kept until it is
+ * closed. Versions older than the oldest open snapshot are pruned, from the
+ * chain of a key when it is written and from the whole tree by prune, which
+ * can run in the background. Without open snapshots only the current version
+ * of each key is kept.
+ *
+ */
+
+public class VersionedWAVLTree implements AutoCloseable {
+	/**
+	 * prune holds the write lock and a scan the read lock for at most this many
+	 * keys at a time
+	 */
+	private static final int PRUNE_BATCH = 1024;
+
+	private final WAVLTree _tree;
+	private final StampedLock _lock;
+
+	/**
+	 * the number of open snapshots and running scans for each timestamp. they
+	 * register under the read lock and versions are pruned under the write lock,
+	 * so a reader is registered before any of its versions can be pruned
+	 */
+	private final ConcurrentSkipListMap<Long, Integer> _readers;
+
+	private volatile long _clock;
+
+	/**
+	 * no version older than this timestamp is left, a read at an earlier time
+	 * would miss values. written under the write lock
+	 */
+	private volatile long _pruned;
+
+	/**
+	 * the key the next batch of prune starts at
+	 */
+	private int _pruneCursor;
+	private int _liveKeys;
+
+	private ScheduledExecutorService _pruner;
+
+	public VersionedWAVLTree() {
+		this._tree = new VersionTree();
+		this._lock = new StampedLock();
+		this._readers = new ConcurrentSkipListMap<>();
+		this._pruneCursor = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * one value of a key, or a tombstone if it was deleted at timestamp
+	 */
+
+	static final class Version {
+		final long _timestamp;
+		final String _value;
+		final boolean _deleted;
+		Version _older;
+
+		Version(long timestamp, String value, boolean deleted, Version older) {
+			this._timestamp = timestamp;
+			this._value = value;
+			this._deleted = deleted;
+			this._older = older;
+		}
+	}
+
+	/**
+	 * a node with the version chain of its key
+	 */
+
+	static class VersionNode extends WAVLTree.WAVLNode {
+		private Version _versions;
+
+		VersionNode(int key, WAVLTree.WAVLNode parent) {
+			super(key, null, parent);
+		}
+
+		@Override
+		public void updateKeyAndValue(WAVLTree.WAVLNode node) {
+			super.updateKeyAndValue(node);
+			this._versions = ((VersionNode) node)._versions;
+		}
+	}
+
+	/**
+	 * the tree of the keys, its nodes keep the versions instead of a value
+	 */
+
+	private static class VersionTree extends WAVLTree {
+		@Override
+		WAVLNode createNode(int key, String value, WAVLNode parent) {
+			return new VersionNode(key, parent);
+		}
+	}
+
+	/**
+	 *
+	 * Snapshot
+	 *
+	 * A consistent view of the tree at one timestamp. Its versions are kept
+	 * until it is closed, reading a closed snapshot throws
+	 * IllegalStateException.
+	 *
+	 */
+	public final class Snapshot implements AutoCloseable {
+		private final long _timestamp;
+		private volatile boolean _closed;
+
+		private Snapshot(long timestamp) {
+			this._timestamp = timestamp;
+		}
+
+		public long getTimestamp() {
+			return this._timestamp;
+		}
+
+		public String search(int k) {
+			return read(k, this._timestamp, this);
+		}
+
+		public int[] keysToArray() {
+			return readKeys(this._timestamp, this);
+		}
+
+		public String[] infoToArray() {
+			return readInfos(this._timestamp, this);
+		}
+
+		/**
+		 * public void close()
+		 *
+		 * lets the versions only this snapshot reads be pruned. closing a closed
+		 * snapshot does nothing
+		 */
+		@Override
+		public synchronized void close() {
+			if (this._closed)
+				return;
+			this._closed = true;
+			unregister(this._timestamp);
+		}
+
+		private void checkOpen() {
+			if (this._closed)
+				throw new IllegalStateException("snapshot at " + this._timestamp + " is closed");
+		}
+	}
+
+	/**
+	 * public long now()
+	 *
+	 * returns the timestamp of the last change, 0 if there was none
+	 */
+	public long now() {
+		return this._clock;
+	}
+
+	/**
+	 * public Snapshot snapshot()
+	 *
+	 * opens a snapshot of the tree as it is now. it has to be closed, its
+	 * versions are kept until then
+	 */
+	public Snapshot snapshot() {
+		long stamp = this._lock.readLock();
+		try {
+			long timestamp = this._clock;
+			register(timestamp);
+			return new Snapshot(timestamp);
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public long put(int k, String i)
+	 *
+	 * sets the value of key k to i, inserting k if it is not in the tree.
+	 * returns the timestamp of the change
+	 */
+	public long put(int k, String i) {
+		long stamp = this._lock.writeLock();
+		try {
+			VersionNode node = (VersionNode) this._tree.findNode(k);
+			if (node == null) {
+				this._tree.insert(k, null);
+				node = (VersionNode) this._tree.findNode(k);
+			}
+			if (node._versions == null || node._versions._deleted)
+				this._liveKeys++;
+
+			long timestamp = ++this._clock;
+			node._versions = new Version(timestamp, i, false, node._versions);
+			pruneVersions(node, horizon());
+			return timestamp;
+		} finally {
+			this._lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * public long delete(int k)
+	 *
+	 * deletes key k. returns the timestamp of the change, or -1 if k is not in
+	 * the tree now
+	 */
+	public long delete(int k) {
+		long stamp = this._lock.writeLock();
+		try {
+			VersionNode node = (VersionNode) this._tree.findNode(k);
+			if (node == null || node._versions._deleted)
+				return -1;
+			this._liveKeys--;
+
+			long timestamp = ++this._clock;
+			node._versions = new Version(timestamp, null, true, node._versions);
+			if (pruneVersions(node, horizon()))
+				this._tree.removeNode(node);
+			return timestamp;
+		} finally {
+			this._lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the current value of key k, or null if k is not in the tree
+	 */
+	public String search(int k) {
+		return search(k, Long.MAX_VALUE);
+	}
+
+	/**
+	 * public String search(int k, long asOf)
+	 *
+	 * returns the value key k had at timestamp asOf, or null if it was not in
+	 * the tree then. a read without a snapshot only sees the past as long as it
+	 * is not pruned, throws IllegalArgumentException if asOf is older than
+	 * oldestReadable()
+	 */
+	public String search(int k, long asOf) {
+		return read(k, asOf, null);
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * returns a sorted array which contains all keys in the tree at the time of
+	 * the call, changes made while it runs are not in it
+	 */
+	public int[] keysToArray() {
+		return keysToArray(Long.MAX_VALUE);
+	}
+
+	/**
+	 * public int[] keysToArray(long asOf)
+	 *
+	 * returns a sorted array which contains the keys that were in the tree at
+	 * timestamp asOf. writers are only held up for PRUNE_BATCH keys at a time.
+	 * throws IllegalArgumentException if asOf is older than oldestReadable()
+	 */
+	public int[] keysToArray(long asOf) {
+		return readKeys(asOf, null);
+	}
+
+	/**
+	 * public String[] infoToArray(long asOf)
+	 *
+	 * returns the values of keysToArray(asOf), in the same order
+	 */
+	public String[] infoToArray(long asOf) {
+		return readInfos(asOf, null);
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * returns the number of keys in the tree now
+	 */
+	public int size() {
+		long stamp = this._lock.readLock();
+		try {
+			return this._liveKeys;
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	public boolean empty() {
+		return size() == 0;
+	}
+
+	/**
+	 * public long oldestReadable()
+	 *
+	 * returns the oldest timestamp a read without a snapshot can still use. it
+	 * only grows, and stops at the oldest open snapshot
+	 */
+	public long oldestReadable() {
+		return this._pruned;
+	}
+
+	/**
+	 * public int prune()
+	 *
+	 * drops the versions no open snapshot and no later read can see, and the
+	 * keys that are deleted for all of them. holds the write lock for
+	 * PRUNE_BATCH keys at a time, so writers wait for one batch at most.
+	 * returns the number of versions dropped
+	 */
+	public int prune() {
+		int dropped = 0;
+		do {
+			long stamp = this._lock.writeLock();
+			try {
+				dropped += pruneBatch();
+			} finally {
+				this._lock.unlockWrite(stamp);
+			}
+		} while (this._pruneCursor != Integer.MIN_VALUE);
+		return dropped;
+	}
+
+	/**
+	 * public void startPruning(long period, TimeUnit unit)
+	 *
+	 * runs prune every period on a daemon thread, until close is called
+	 */
+	public synchronized void startPruning(long period, TimeUnit unit) {
+		if (this._pruner != null)
+			throw new IllegalStateException("pruning already started");
+
+		this._pruner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "VersionedWAVLTree-pruner");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this._pruner.scheduleWithFixedDelay(this::prune, period, period, unit);
+	}
+
+	/**
+	 * public void close()
+	 *
+	 * stops the background pruning. the tree can still be used
+	 */
+	@Override
+	public synchronized void close() {
+		if (this._pruner != null) {
+			this._pruner.shutdownNow();
+			this._pruner = null;
+		}
+	}
+
+	/**
+	 * returns the oldest timestamp that can still be read, the oldest open
+	 * snapshot or now. called under the write lock
+	 */
+
+	private long horizon() {
+		// readers unregister without the lock, so the map can empty in between
+		Map.Entry<Long, Integer> oldestReader = this._readers.firstEntry();
+		long horizon = oldestReader == null ? this._clock : Math.min(oldestReader.getKey(), this._clock);
+		if (horizon > this._pruned)
+			this._pruned = horizon;
+		return horizon;
+	}
+
+	/**
+	 * drops the versions of node older than the one visible at horizon, and
+	 * that one too if it is a tombstone. returns true if no version is left and
+	 * the node can leave the tree
+	 */
+
+	private static boolean pruneVersions(VersionNode node, long horizon) {
+		Version visible = node._versions;
+		while (visible != null && visible._timestamp > horizon)
+			visible = visible._older;
+		if (visible == null)
+			return false;
+
+		visible._older = null;
+		if (!visible._deleted)
+			return false;
+		if (node._versions == visible) {
+			node._versions = null;
+			return true;
+		}
+
+		Version newer = node._versions;
+		while (newer._older != visible)
+			newer = newer._older;
+		newer._older = null;
+		return false;
+	}
+
+	/**
+	 * prunes up to PRUNE_BATCH keys from _pruneCursor on, and moves the cursor
+	 * past them or back to the start at the end of the tree. called under the
+	 * write lock
+	 */
+
+	private int pruneBatch() {
+		long horizon = horizon();
+		int[] empty = new int[PRUNE_BATCH];
+		int emptyCount = 0;
+		int dropped = 0;
+
+		WAVLTree.WAVLNode node = this._tree.ceilingNode(this._pruneCursor);
+		for (int keys = 0; node != null && keys < PRUNE_BATCH; keys++) {
+			VersionNode versions = (VersionNode) node;
+			int before = chainLength(versions._versions);
+			if (pruneVersions(versions, horizon))
+				empty[emptyCount++] = node.getKey();
+			dropped += before - chainLength(versions._versions);
+			node = WAVLTree.successor(node);
+		}
+		this._pruneCursor = node == null ? Integer.MIN_VALUE : node.getKey();
+
+		for (int i = 0; i < emptyCount; i++)
+			this._tree.delete(empty[i]);
+		return dropped;
+	}
+
+	private static int chainLength(Version version) {
+		int length = 0;
+		for (; version != null; version = version._older)
+			length++;
+		return length;
+	}
+
+	/**
+	 * throws if a read at asOf can miss pruned versions. a snapshot keeps its
+	 * versions while it is open, so only the read of a closed one can
+	 */
+
+	private void checkReadable(long asOf, Snapshot snapshot) {
+		if (snapshot != null)
+			snapshot.checkOpen();
+		else if (asOf < this._pruned)
+			throw new IllegalArgumentException("versions before " + this._pruned + " are pruned: " + asOf);
+	}
+
+	/**
+	 * returns the version of node visible at asOf, or null if there is none or
+	 * it is a tombstone
+	 */
+
+	private static Version visibleVersion(WAVLTree.WAVLNode node, long asOf) {
+		Version version = ((VersionNode) node)._versions;
+		while (version != null && version._timestamp > asOf)
+			version = version._older;
+		return version == null || version._deleted ? null : version;
+	}
+
+	/**
+	 * the reads at asOf, of snapshot if it is not null. they check under the read
+	 * lock that asOf is readable, so no prune can run until they are done
+	 */
+
+	private String read(int k, long asOf, Snapshot snapshot) {
+		long stamp = this._lock.readLock();
+		try {
+			checkReadable(asOf, snapshot);
+			WAVLTree.WAVLNode node = this._tree.findNode(k);
+			Version version = node == null ? null : visibleVersion(node, asOf);
+			return version == null ? null : version._value;
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+	}
+
+	private int[] readKeys(long asOf, Snapshot snapshot) {
+		int[][] keys = { new int[16] };
+		int[] count = new int[1];
+		scan(asOf, snapshot, (key, value) -> {
+			if (count[0] == keys[0].length)
+				keys[0] = Arrays.copyOf(keys[0], 2 * count[0]);
+			keys[0][count[0]++] = key;
+		});
+		return Arrays.copyOf(keys[0], count[0]);
+	}
+
+	private String[] readInfos(long asOf, Snapshot snapshot) {
+		String[][] infos = { new String[16] };
+		int[] count = new int[1];
+		scan(asOf, snapshot, (key, value) -> {
+			if (count[0] == infos[0].length)
+				infos[0] = Arrays.copyOf(infos[0], 2 * count[0]);
+			infos[0][count[0]++] = value;
+		});
+		return Arrays.copyOf(infos[0], count[0]);
+	}
+
+	/**
+	 * calls action with the keys and values visible at asOf in key order. holds
+	 * the read lock for PRUNE_BATCH keys at a time, like prune holds the write
+	 * lock, so writers are not held up by a long scan. a read without a snapshot
+	 * registers asOf as a reader until it is done, so the versions it reads
+	 * between batches are not pruned. asOf is at most the time the scan starts,
+	 * it does not see later changes
+	 */
+
+	private void scan(long asOf, Snapshot snapshot, WAVLTree.KeyValueConsumer action) {
+		long stamp = this._lock.readLock();
+		try {
+			checkReadable(asOf, snapshot);
+			asOf = Math.min(asOf, this._clock);
+			if (snapshot == null)
+				register(asOf);
+		} finally {
+			this._lock.unlockRead(stamp);
+		}
+
+		try {
+			long next = Integer.MIN_VALUE;
+			while (next <= Integer.MAX_VALUE) {
+				stamp = this._lock.readLock();
+				try {
+					if (snapshot != null)
+						snapshot.checkOpen();
+					WAVLTree.WAVLNode node = this._tree.ceilingNode((int) next);
+					for (int keys = 0; node != null && keys < PRUNE_BATCH; keys++) {
+						Version version = visibleVersion(node, asOf);
+						if (version != null)
+							action.accept(node.getKey(), version._value);
+						next = node.getKey() + 1L;
+						node = WAVLTree.successor(node);
+					}
+					if (node == null)
+						return;
+				} finally {
+					this._lock.unlockRead(stamp);
+				}
+			}
+		} finally {
+			if (snapshot == null)
+				unregister(asOf);
+		}
+	}
+
+	/**
+	 * keeps the versions visible at timestamp until it is unregistered, called
+	 * under the read lock
+	 */
+
+	private void register(long timestamp) {
+		this._readers.merge(timestamp, 1, Integer::sum);
+	}
+
+	private void unregister(long timestamp) {
+		this._readers.computeIfPresent(timestamp, (key, count) -> count == 1 ? null : count - 1);
+	}
+}
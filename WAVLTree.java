@@ -1,5 +1,26 @@
-import java.util.LinkedList;
-import java.util.function.Function;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  *
@@ -10,14 +31,662 @@ import java.util.function.Function;
  */
 
 public class WAVLTree {
+	/**
+	 * the single external node shared by every tree, all external leaves point to
+	 * it instead of allocating their own
+	 */
+	private static final WAVLNode EXTERNAL_NODE = new ExternaLWavlNode();
+
+	/**
+	 * size of an inner node whose subtree size is not known while a batch defers
+	 * size updates. every ancestor of such a node is marked as well
+	 */
+	private static final int DIRTY_SIZE = -1;
+
+	/**
+	 * the grain size of the parallel operations, below it the fork-join overhead
+	 * outweighs the gain. it is a guess that has not been measured on more than
+	 * one core, ParallelBenchmark in benchmarks measures it
+	 */
+	public static final int DEFAULT_GRAIN_SIZE = 1 << 13;
+
+	/**
+	 * "WAVL", the first bytes written by writeTo
+	 */
+	private static final int SERIAL_MAGIC = 0x5741564C;
+	private static final int SERIAL_VERSION = 1;
+	private static final int SERIAL_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * a WAVL tree of at most 2^31 keys is less than 62 levels high, a deeper
+	 * serialized shape is corrupt
+	 */
+	private static final int SERIAL_MAX_DEPTH = 64;
+
+	/**
+	 * the 4 bits that describe a node in a serialized shape
+	 */
+	private static final int SHAPE_LEFT = 1;
+	private static final int SHAPE_RIGHT = 2;
+	private static final int SHAPE_LEFT_DIFF_2 = 4;
+	private static final int SHAPE_RIGHT_DIFF_2 = 8;
+
+	/**
+	 * select with a cursor starts at the node of the cursor if the index is at
+	 * most a 2^-SELECT_FINGER_REACH fraction of the size away from it
+	 */
+	private static final int SELECT_FINGER_REACH = 6;
+
 	private WAVLNode _root;
 	private WAVLNode _min;
 	private WAVLNode _max;
+	private boolean _deferSizes;
+
+	/**
+	 * counts structural changes, so iterators of views can fail fast
+	 */
+	private int _modCount;
+
+	/**
+	 * records the rebalancing and the latency of the operations, null when
+	 * nothing is recorded
+	 */
+	private WAVLTreeStats _stats;
+
+	/**
+	 * true for a subclass that keeps more than the size per subtree, its
+	 * updateAugmentation is called wherever a size is updated
+	 */
+	private final boolean _augmented;
 
 	public WAVLTree() {
-		this._root = new ExternaLWavlNode(null);
-		this._min = new ExternaLWavlNode(null);
-		this._max = new ExternaLWavlNode(null);
+		this(false);
+	}
+
+	/**
+	 * creates an empty tree. a subclass that keeps its own values per subtree
+	 * passes true, creates its nodes in createNode and recomputes them in
+	 * updateAugmentation
+	 */
+
+	WAVLTree(boolean augmented) {
+		this._root = EXTERNAL_NODE;
+		this._min = EXTERNAL_NODE;
+		this._max = EXTERNAL_NODE;
+		this._augmented = augmented;
+	}
+
+	/**
+	 * creates the node of an inserted item, a subclass returns its own subclass
+	 * of WAVLNode
+	 */
+
+	WAVLNode createNode(int key, String value, WAVLNode parent) {
+		return new WAVLNode(key, value, parent);
+	}
+
+	/**
+	 * recomputes what a subclass keeps per subtree at node from node and its
+	 * children, whose values are already up to date. called bottom up after every
+	 * change below node, only if the tree is augmented
+	 */
+
+	void updateAugmentation(WAVLNode node) {
+	}
+
+	/**
+	 * public static WAVLTree fromSorted(int[] keys, String[] values)
+	 *
+	 * builds a tree of the given keys and their respective infos in O(n). keys
+	 * must be strictly increasing. the tree is perfectly balanced, every node has
+	 * its height as rank.
+	 */
+	public static WAVLTree fromSorted(int[] keys, String[] values) {
+		if (keys.length != values.length)
+			throw new IllegalArgumentException(keys.length + " keys but " + values.length + " values");
+		for (int i = 1; i < keys.length; i++) {
+			if (keys[i - 1] >= keys[i])
+				throw new IllegalArgumentException("keys are not strictly increasing at index " + i);
+		}
+
+		WAVLTree tree = new WAVLTree();
+		tree.setBuiltRoot(buildBalanced(keys, values, 0, keys.length));
+		return tree;
+	}
+
+	/**
+	 * public static WAVLTree fromSorted(PrimitiveIterator.OfInt keys,
+	 * Iterator<String> values, int count)
+	 *
+	 * builds a tree of the next count keys and infos of the iterators in O(n)
+	 * without buffering them. keys must be strictly increasing.
+	 */
+	public static WAVLTree fromSorted(PrimitiveIterator.OfInt keys, Iterator<String> values, int count) {
+		if (count < 0)
+			throw new IllegalArgumentException("negative count: " + count);
+
+		WAVLTree tree = new WAVLTree();
+		tree.setBuiltRoot(new SortedBuilder(keys, values).build(count));
+		return tree;
+	}
+
+	/**
+	 * public static WAVLTree parallelFromSorted(int[] keys, String[] values, int
+	 * grainSize)
+	 *
+	 * like fromSorted, but builds subtrees of more than grainSize keys in parallel
+	 * on the fork-join pool of the calling thread (the common pool by default).
+	 * builds exactly the same tree as fromSorted, and builds it like fromSorted
+	 * when the pool has a parallelism of 1.
+	 */
+	public static WAVLTree parallelFromSorted(int[] keys, String[] values, int grainSize) {
+		if (keys.length != values.length)
+			throw new IllegalArgumentException(keys.length + " keys but " + values.length + " values");
+		checkGrainSize(grainSize);
+		for (int i = 1; i < keys.length; i++) {
+			if (keys[i - 1] >= keys[i])
+				throw new IllegalArgumentException("keys are not strictly increasing at index " + i);
+		}
+
+		WAVLTree tree = new WAVLTree();
+		if (parallel(keys.length, grainSize))
+			tree.setBuiltRoot(new BuildTask(keys, values, 0, keys.length, grainSize).invoke());
+		else
+			tree.setBuiltRoot(buildBalanced(keys, values, 0, keys.length));
+		return tree;
+	}
+
+	private static void checkGrainSize(int grainSize) {
+		if (grainSize < 1)
+			throw new IllegalArgumentException("grain size must be positive: " + grainSize);
+	}
+
+	/**
+	 * whether a parallel operation on size nodes should fork. the tasks would run
+	 * one after the other on a pool of parallelism 1, which only adds the cost of
+	 * the tasks, so the operations run sequentially there
+	 */
+
+	private static boolean parallel(int size, int grainSize) {
+		ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+		return size > grainSize && pool.getParallelism() > 1;
+	}
+
+	/**
+	 * builds the subtree of keys[from, to), the middle key is the root so the
+	 * heights of the two subtrees differ by at most 1
+	 */
+
+	private static WAVLNode buildBalanced(int[] keys, String[] values, int from, int to) {
+		if (from == to)
+			return EXTERNAL_NODE;
+
+		int middle = (from + to) >>> 1;
+		WAVLNode left = buildBalanced(keys, values, from, middle);
+		WAVLNode right = buildBalanced(keys, values, middle + 1, to);
+		return newBuiltNode(left, keys[middle], values[middle], right);
+	}
+
+	/**
+	 * creates a node above two built subtrees whose heights differ by at most 1.
+	 * the rank of the node is its height, so both rank differences are 1 or 2
+	 */
+
+	private static WAVLNode newBuiltNode(WAVLNode left, int key, String value, WAVLNode right) {
+		WAVLNode node = new WAVLNode(key, value, null);
+		linkChildren(node, left, right);
+		return node;
+	}
+
+	/**
+	 * makes left and right the children of node, whose ranks may differ by at most
+	 * 1. the rank of node becomes 1 more than the higher of them, so both rank
+	 * differences are 1 or 2
+	 */
+
+	private static void linkChildren(WAVLNode node, WAVLNode left, WAVLNode right) {
+		int rank = Math.max(left.getRank(), right.getRank()) + 1;
+		node.setLeft(left);
+		node.setRight(right);
+		node.setLeftDiff(rank - left.getRank());
+		node.setRightDiff(rank - right.getRank());
+		node.setRank(rank);
+		node.setSize(left.getSubtreeSize() + right.getSubtreeSize() + 1);
+		if (left.isInnerNode())
+			left.setParent(node);
+		if (right.isInnerNode())
+			right.setParent(node);
+	}
+
+	private void setBuiltRoot(WAVLNode root) {
+		this._modCount++;
+		this._root = root;
+		if (root.isInnerNode()) {
+			this._min = root.min();
+			this._max = root.max();
+		} else {
+			this._min = EXTERNAL_NODE;
+			this._max = EXTERNAL_NODE;
+		}
+	}
+
+	/**
+	 * builds the subtree of keys[from, to) like buildBalanced, forking the left
+	 * half while it is larger than the grain size
+	 */
+
+	private static class BuildTask extends RecursiveTask<WAVLNode> {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] _keys;
+		private final String[] _values;
+		private final int _from;
+		private final int _to;
+		private final int _grainSize;
+
+		BuildTask(int[] keys, String[] values, int from, int to, int grainSize) {
+			this._keys = keys;
+			this._values = values;
+			this._from = from;
+			this._to = to;
+			this._grainSize = grainSize;
+		}
+
+		@Override
+		protected WAVLNode compute() {
+			if (this._to - this._from <= this._grainSize)
+				return buildBalanced(this._keys, this._values, this._from, this._to);
+
+			int middle = (this._from + this._to) >>> 1;
+			BuildTask left = new BuildTask(this._keys, this._values, this._from, middle, this._grainSize);
+			left.fork();
+			WAVLNode right = new BuildTask(this._keys, this._values, middle + 1, this._to, this._grainSize).compute();
+			return newBuiltNode(left.join(), this._keys[middle], this._values[middle], right);
+		}
+	}
+
+	/**
+	 * builds a balanced tree in order from iterators, the left subtree is built
+	 * before its root key is read
+	 */
+
+	private static class SortedBuilder {
+		private final PrimitiveIterator.OfInt _keys;
+		private final Iterator<String> _values;
+		private boolean _started;
+		private int _lastKey;
+
+		SortedBuilder(PrimitiveIterator.OfInt keys, Iterator<String> values) {
+			this._keys = keys;
+			this._values = values;
+		}
+
+		WAVLNode build(int count) {
+			if (count == 0)
+				return EXTERNAL_NODE;
+
+			int leftCount = (count - 1) / 2;
+			WAVLNode left = build(leftCount);
+			int key = nextKey();
+			String value = this._values.next();
+			WAVLNode right = build(count - 1 - leftCount);
+			return newBuiltNode(left, key, value, right);
+		}
+
+		private int nextKey() {
+			if (!this._keys.hasNext() || !this._values.hasNext())
+				throw new NoSuchElementException("fewer keys or values than the requested count");
+
+			int key = this._keys.nextInt();
+			if (this._started && this._lastKey >= key)
+				throw new IllegalArgumentException("keys are not strictly increasing at key " + key);
+			this._started = true;
+			this._lastKey = key;
+			return key;
+		}
+	}
+
+	/**
+	 * public void writeTo(OutputStream out)
+	 *
+	 * writes the tree to out in a compact binary form that readFrom restores with
+	 * the exact same shape and ranks. the shape is written in pre-order with 4
+	 * bits per node (which children it has and whether each rank difference is 2),
+	 * followed by the items in order: each key as the varint difference to the
+	 * previous one and each info as its UTF-8 bytes prefixed by their length.
+	 * out is flushed but not closed.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		int count = size();
+		byte[] shape = new byte[(count + 1) / 2];
+		writeShape(this._root, shape, 0);
+
+		SerialOutput output = new SerialOutput(out);
+		output.writeInt(SERIAL_MAGIC);
+		output.writeByte(SERIAL_VERSION);
+		output.writeVarLong(count);
+		output.write(shape, 0, shape.length);
+
+		long previousKey = 0;
+		for (WAVLNode node = firstNode(); node != null; node = successor(node)) {
+			int key = node.getKey();
+			if (node == this._min)
+				output.writeVarLong(((key << 1) ^ (key >> 31)) & 0xFFFFFFFFL);
+			else
+				output.writeVarLong(key - previousKey);
+			previousKey = key;
+
+			String value = node.getValue();
+			if (value == null) {
+				output.writeVarLong(0);
+			} else {
+				byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				output.writeVarLong(bytes.length + 1L);
+				output.write(bytes, 0, bytes.length);
+			}
+		}
+		output.flush();
+	}
+
+	/**
+	 * public void writeTo(WritableByteChannel channel)
+	 *
+	 * writes the tree to channel like writeTo(OutputStream), for example to a
+	 * FileChannel. the channel is not closed
+	 */
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		writeTo(Channels.newOutputStream(channel));
+	}
+
+	/**
+	 * public static WAVLTree readFrom(InputStream in)
+	 *
+	 * restores a tree written by writeTo in O(n), without searching or
+	 * rebalancing. in is read through a buffer, so bytes after the tree may be
+	 * consumed as well. throws StreamCorruptedException if the bytes are not a
+	 * valid WAVL tree, and EOFException if they end early.
+	 */
+	public static WAVLTree readFrom(InputStream in) throws IOException {
+		SerialInput input = new SerialInput(in);
+		if (input.readInt() != SERIAL_MAGIC)
+			throw new StreamCorruptedException("not a serialized WAVL tree");
+		int version = input.readByte();
+		if (version != SERIAL_VERSION)
+			throw new StreamCorruptedException("unsupported version " + version);
+		long count = input.readVarLong();
+		if (count < 0 || count > Integer.MAX_VALUE)
+			throw new StreamCorruptedException("invalid size " + count);
+
+		byte[] shape = new byte[(int) ((count + 1) / 2)];
+		input.readFully(shape);
+		TreeReader reader = new TreeReader(input, shape, (int) count);
+		WAVLNode root = count == 0 ? EXTERNAL_NODE : reader.read(0);
+		if (reader._index != count)
+			throw new StreamCorruptedException("shape has " + reader._index + " nodes, expected " + count);
+
+		WAVLTree tree = new WAVLTree();
+		tree.setBuiltRoot(root);
+		return tree;
+	}
+
+	/**
+	 * public static WAVLTree readFrom(ReadableByteChannel channel)
+	 *
+	 * restores a tree from channel like readFrom(InputStream), for example from a
+	 * FileChannel. the channel is not closed
+	 */
+	public static WAVLTree readFrom(ReadableByteChannel channel) throws IOException {
+		return readFrom(Channels.newInputStream(channel));
+	}
+
+	/**
+	 * writes the shape of the subtree of node in pre-order into shape, starting at
+	 * the node with pre-order index index. returns the index after the subtree
+	 */
+
+	private static int writeShape(WAVLNode node, byte[] shape, int index) {
+		if (!node.isInnerNode())
+			return index;
+
+		int flags = 0;
+		if (node.getLeftNode().isInnerNode())
+			flags |= SHAPE_LEFT;
+		if (node.getRightNode().isInnerNode())
+			flags |= SHAPE_RIGHT;
+		if (node.getLeftDiff() == 2)
+			flags |= SHAPE_LEFT_DIFF_2;
+		if (node.getRightDiff() == 2)
+			flags |= SHAPE_RIGHT_DIFF_2;
+		shape[index >>> 1] |= flags << ((index & 1) << 2);
+
+		index = writeShape(node.getLeftNode(), shape, index + 1);
+		return writeShape(node.getRightNode(), shape, index);
+	}
+
+	/**
+	 * rebuilds the nodes of a serialized tree, reading the shape in pre-order and
+	 * the items in order in the same recursion. checks the rank rule at every
+	 * node, so a restored tree is a valid WAVL tree
+	 */
+
+	private static class TreeReader {
+		private final SerialInput _input;
+		private final byte[] _shape;
+		private final int _count;
+		private int _index;
+		private long _lastKey;
+
+		TreeReader(SerialInput input, byte[] shape, int count) {
+			this._input = input;
+			this._shape = shape;
+			this._count = count;
+			this._lastKey = Long.MIN_VALUE;
+		}
+
+		WAVLNode read(int depth) throws IOException {
+			if (this._index >= this._count || depth > SERIAL_MAX_DEPTH)
+				throw new StreamCorruptedException("shape does not match the size of the tree");
+
+			int index = this._index++;
+			int flags = (this._shape[index >>> 1] >>> ((index & 1) << 2)) & 0xF;
+			WAVLNode left = (flags & SHAPE_LEFT) != 0 ? read(depth + 1) : EXTERNAL_NODE;
+			int key = readKey();
+			String value = this._input.readString();
+			WAVLNode right = (flags & SHAPE_RIGHT) != 0 ? read(depth + 1) : EXTERNAL_NODE;
+
+			int leftDiff = (flags & SHAPE_LEFT_DIFF_2) != 0 ? 2 : 1;
+			int rightDiff = (flags & SHAPE_RIGHT_DIFF_2) != 0 ? 2 : 1;
+			int rank = left.getRank() + leftDiff;
+			if (rank != right.getRank() + rightDiff || (rank != 0 && !left.isInnerNode() && !right.isInnerNode()))
+				throw new StreamCorruptedException("invalid rank differences at key " + key);
+
+			WAVLNode node = new WAVLNode(key, value, null);
+			node.setLeft(left);
+			node.setRight(right);
+			node.setLeftDiff(leftDiff);
+			node.setRightDiff(rightDiff);
+			node.setRank(rank);
+			node.setSize(left.getSubtreeSize() + right.getSubtreeSize() + 1);
+			if (left.isInnerNode())
+				left.setParent(node);
+			if (right.isInnerNode())
+				right.setParent(node);
+			return node;
+		}
+
+		/**
+		 * reads the next key in order. the smallest key is written whole, every
+		 * other one as its distance to the previous key
+		 */
+		private int readKey() throws IOException {
+			long encoded = this._input.readVarLong();
+			long key;
+			if (this._lastKey == Long.MIN_VALUE) {
+				key = (encoded >>> 1) ^ -(encoded & 1);
+			} else {
+				if (encoded <= 0)
+					throw new StreamCorruptedException("keys are not strictly increasing");
+				key = this._lastKey + encoded;
+			}
+			if (key < Integer.MIN_VALUE || key > Integer.MAX_VALUE)
+				throw new StreamCorruptedException("key out of range: " + key);
+			this._lastKey = key;
+			return (int) key;
+		}
+	}
+
+	/**
+	 * the buffered writing of writeTo. unlike BufferedOutputStream it does not
+	 * lock for every byte
+	 */
+
+	private static class SerialOutput {
+		private final OutputStream _out;
+		private final byte[] _buffer;
+		private int _position;
+
+		SerialOutput(OutputStream out) {
+			this._out = out;
+			this._buffer = new byte[SERIAL_BUFFER_SIZE];
+		}
+
+		void writeByte(int b) throws IOException {
+			if (this._position == this._buffer.length)
+				flushBuffer();
+			this._buffer[this._position++] = (byte) b;
+		}
+
+		void writeInt(int value) throws IOException {
+			writeByte(value >>> 24);
+			writeByte(value >>> 16);
+			writeByte(value >>> 8);
+			writeByte(value);
+		}
+
+		/**
+		 * writes a non negative value 7 bits per byte, least significant first, the
+		 * high bit of a byte is set if more bytes follow
+		 */
+		void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7FL) != 0) {
+				writeByte((int) (value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			writeByte((int) value);
+		}
+
+		void write(byte[] bytes, int offset, int length) throws IOException {
+			if (length > this._buffer.length - this._position) {
+				flushBuffer();
+				if (length > this._buffer.length) {
+					this._out.write(bytes, offset, length);
+					return;
+				}
+			}
+			System.arraycopy(bytes, offset, this._buffer, this._position, length);
+			this._position += length;
+		}
+
+		void flush() throws IOException {
+			flushBuffer();
+			this._out.flush();
+		}
+
+		private void flushBuffer() throws IOException {
+			this._out.write(this._buffer, 0, this._position);
+			this._position = 0;
+		}
+	}
+
+	/**
+	 * the buffered reading of readFrom, decodes strings straight from the buffer
+	 * when they fit in it
+	 */
+
+	private static class SerialInput {
+		private final InputStream _in;
+		private final byte[] _buffer;
+		private int _position;
+		private int _limit;
+
+		SerialInput(InputStream in) {
+			this._in = in;
+			this._buffer = new byte[SERIAL_BUFFER_SIZE];
+		}
+
+		int readByte() throws IOException {
+			if (this._position == this._limit)
+				fill(1);
+			return this._buffer[this._position++] & 0xFF;
+		}
+
+		int readInt() throws IOException {
+			return readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+		}
+
+		long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = readByte();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+			throw new StreamCorruptedException("varint longer than 64 bits");
+		}
+
+		/**
+		 * reads a string written as its length + 1 and its UTF-8 bytes, or null if
+		 * the length is 0
+		 */
+		String readString() throws IOException {
+			long length = readVarLong() - 1;
+			if (length < 0)
+				return null;
+			if (length > Integer.MAX_VALUE - 8)
+				throw new StreamCorruptedException("invalid info length " + length);
+
+			if (length <= this._buffer.length) {
+				fill((int) length);
+				String value = new String(this._buffer, this._position, (int) length, StandardCharsets.UTF_8);
+				this._position += (int) length;
+				return value;
+			}
+			byte[] bytes = new byte[(int) length];
+			readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		void readFully(byte[] bytes) throws IOException {
+			int offset = Math.min(bytes.length, this._limit - this._position);
+			System.arraycopy(this._buffer, this._position, bytes, 0, offset);
+			this._position += offset;
+			while (offset < bytes.length) {
+				int read = this._in.read(bytes, offset, bytes.length - offset);
+				if (read < 0)
+					throw new EOFException("serialized WAVL tree ends early");
+				offset += read;
+			}
+		}
+
+		/**
+		 * makes at least count bytes available in the buffer, count is at most the
+		 * length of the buffer
+		 */
+		private void fill(int count) throws IOException {
+			if (this._limit - this._position >= count)
+				return;
+
+			System.arraycopy(this._buffer, this._position, this._buffer, 0, this._limit - this._position);
+			this._limit -= this._position;
+			this._position = 0;
+			while (this._limit < count) {
+				int read = this._in.read(this._buffer, this._limit, this._buffer.length - this._limit);
+				if (read < 0)
+					throw new EOFException("serialized WAVL tree ends early");
+				this._limit += read;
+			}
+		}
 	}
 
 	/**
@@ -68,16 +737,101 @@ public class WAVLTree {
 	 * k already exists in the tree.
 	 */
 	public int insert(int k, String i) {
+		WAVLTreeStats stats = this._stats;
+		long start = stats == null ? 0 : System.nanoTime();
 		int steps = -1;
 		WAVLNode node = insertNodeInTree(k, i);
 		if (node != null) {
-			updateMinMaxNodesAtInsert(node);
-			steps = rebalanceTree(node);
-			updateNodeBranchAfterRebalance(node.getParent());
+			if (stats != null)
+				stats.recordDescent(depth(node));
+			steps = rebalanceInsertedNode(node);
 		}
+		if (stats != null)
+			stats.recordInsert(steps, System.nanoTime() - start);
+		return steps;
+	}
+
+	/**
+	 * links a new leaf with key k and info i into the tree without rebalancing,
+	 * and returns it, or null if k is already in the tree. a subclass that has to
+	 * complete its node before the tree is rebalanced calls this and then
+	 * rebalanceInsertedNode
+	 */
+
+	WAVLNode insertLeaf(int k, String i) {
+		return insertNodeInTree(k, i);
+	}
+
+	/**
+	 * rebalances the tree after node was linked in, and updates the sizes and
+	 * augmentation of its branch. returns the number of rebalancing operations
+	 */
+
+	int rebalanceInsertedNode(WAVLNode node) {
+		this._modCount++;
+		updateMinMaxNodesAtInsert(node);
+		int steps = rebalanceTree(node);
+		updateNodeBranchAfterRebalance(node.getParent());
 		return steps;
 	}
 
+	/**
+	 * public int[] insertAll(int[] keys, String[] values)
+	 *
+	 * inserts the items (keys[j], values[j]) as if insert was called for each of
+	 * them in increasing key order, and returns in results[j] what that call
+	 * returned (-1 if the key already exists, also if it appears earlier in the
+	 * batch). each search starts from the previously inserted node instead of the
+	 * root, and subtree sizes are fixed once at the end of the batch.
+	 */
+	public int[] insertAll(int[] keys, String[] values) {
+		if (keys.length != values.length)
+			throw new IllegalArgumentException(keys.length + " keys but " + values.length + " values");
+
+		long[] order = sortedBatch(keys);
+		int[] results = new int[keys.length];
+		WAVLNode finger = null;
+
+		beginDeferredSizes();
+		try {
+			for (long entry : order) {
+				int index = (int) entry;
+				int key = keys[index];
+				WAVLNode node;
+				if (empty()) {
+					node = insertNodeInTree(key, values[index]);
+				} else {
+					WAVLNode parent = searchFromFinger(finger, key);
+					node = parent.getKey() == key ? null : insertChildNode(key, values[index], parent);
+					finger = parent;
+				}
+
+				if (node == null) {
+					results[index] = -1;
+				} else {
+					results[index] = rebalanceInsertedNode(node);
+					finger = node;
+				}
+			}
+		} finally {
+			endDeferredSizes();
+		}
+		return results;
+	}
+
+	/**
+	 * sorts the indices of a batch by key, keys are packed into the high and
+	 * indices into the low half of a long so equal keys keep their batch order
+	 */
+
+	private static long[] sortedBatch(int[] keys) {
+		long[] order = new long[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			order[i] = ((long) keys[i] << 32) | i;
+		Arrays.sort(order);
+		return order;
+	}
+
 	private void updateMinMaxNodesAtInsert(WAVLNode node) {
 		if (!_min.isInnerNode() || _min.getKey() > node.getKey())
 			_min = node;
@@ -91,7 +845,7 @@ public class WAVLTree {
 
 	private WAVLNode insertNodeInTree(int key, String value) {
 		if (empty()) {
-			this._root = new WAVLNode(key, value, null);
+			this._root = createNode(key, value, null);
 			return this._root;
 		}
 
@@ -116,6 +870,43 @@ public class WAVLTree {
 		return parent;
 	}
 
+	/**
+	 * finger search: climbs from finger to the lowest ancestor whose subtree
+	 * covers key and descends from there, which costs O(log d) for keys d
+	 * positions away from the finger. starts at the root if finger is null.
+	 * returns the node with the key, or the last inner node on the search path
+	 */
+
+	private WAVLNode searchFromFinger(WAVLNode finger, int key) {
+		WAVLNode node = finger == null ? this._root : finger;
+		WAVLNode parent = node.getParent();
+
+		if (node.getKey() < key) {
+			while (parent != null && !(parent.isLeftChild(node) && parent.getKey() > key)) {
+				if (parent.getKey() == key)
+					return parent;
+				node = parent;
+				parent = node.getParent();
+			}
+		} else if (node.getKey() > key) {
+			while (parent != null && !(!parent.isLeftChild(node) && parent.getKey() < key)) {
+				if (parent.getKey() == key)
+					return parent;
+				node = parent;
+				parent = node.getParent();
+			}
+		}
+
+		WAVLNode last = node;
+		while (node.isInnerNode()) {
+			last = node;
+			if (node.getKey() == key)
+				return node;
+			node = node.getKey() > key ? node.getLeftNode() : node.getRightNode();
+		}
+		return last;
+	}
+
 	/**
 	 * inserts a node as the son of another node
 	 */
@@ -124,7 +915,7 @@ public class WAVLTree {
 		if (parent == null || !parent.isInnerNode())
 			return null;
 
-		WAVLNode node = new WAVLNode(key, value, parent);
+		WAVLNode node = createNode(key, value, parent);
 		if (parent.getKey() > key) {
 			parent.setLeft(node);
 		} else {
@@ -140,6 +931,7 @@ public class WAVLTree {
 	 */
 
 	private int rebalanceTree(WAVLNode node) {
+		WAVLTreeStats stats = this._stats;
 		int steps = 0;
 
 		WAVLNode parent = node.getParent();
@@ -153,15 +945,22 @@ public class WAVLTree {
 			if (requiresPromotion(parent)) { // case1: promote
 				parent.incLeftDiff();
 				parent.incRightDiff();
+				parent.incRank();
+				if (stats != null)
+					stats.recordPromotion();
 				steps += 1;
 			} else if (requiresSingleRotation(parent)) { // case2: single rotation
 				singleRotate(node, parent);
+				if (stats != null)
+					stats.recordSingleRotation();
 				return steps + 2;
 			} else if (requiresDoubleRotation(parent)) { // case3: double rotation
 				if (parent.isLeftChild(node))
 					doubleRotateFromLeft(node, parent);
 				else
 					doubleRotateFromRight(node, parent);
+				if (stats != null)
+					stats.recordDoubleRotation();
 				return steps + 5;
 			} else // case B: node is valid (1,1), no need for rebalancing
 				return steps;
@@ -248,25 +1047,43 @@ public class WAVLTree {
 
 		if (parent.isLeftChild(node)) {
 			parent.setLeft(node.getRightNode());
-			if (node.getRightNode() != null) {
+			if (node.getRightNode().isInnerNode()) {
 				node.getRightNode().setParent(parent);
 			}
 			node.setRight(parent);
 
 		} else {
 			parent.setRight(node.getLeftNode());
-			if (node.getLeftNode() != null) {
+			if (node.getLeftNode().isInnerNode()) {
 				node.getLeftNode().setParent(parent);
 			}
 
 			node.setLeft(parent);
 		}
-		updateNodeSize(parent);
-		updateNodeSize(node);
+		if (this._deferSizes) {
+			markBranchDirty(parent);
+			markBranchDirty(node);
+		} else {
+			updateNodeSize(parent);
+			updateNodeSize(node);
+		}
+		updateNodeRank(parent);
+		updateNodeRank(node);
 	}
 
 	private void updateNodeSize(WAVLNode node) {
 		node.setSize(node.getLeftNode().getSubtreeSize() + node.getRightNode().getSubtreeSize() + 1);
+		if (this._augmented)
+			updateAugmentation(node);
+	}
+
+	/**
+	 * recomputes the stored rank of a node from its left child, the rank
+	 * differences of the node must already be final
+	 */
+
+	private void updateNodeRank(WAVLNode node) {
+		node.setRank(node.getLeftNode().getRank() + node.getLeftDiff());
 	}
 
 	/**
@@ -278,28 +1095,99 @@ public class WAVLTree {
 	 * item with key k was not found in the tree.
 	 */
 	public int delete(int k) {
+		WAVLTreeStats stats = this._stats;
+		if (stats != null)
+			return measuredDelete(k, stats);
+
 		WAVLNode node = getNodeByKey(k);
 		if (!node.isInnerNode())
 			return -1;
 
+		return deleteFoundNode(node);
+	}
+
+	private int measuredDelete(int k, WAVLTreeStats stats) {
+		long start = System.nanoTime();
+		int steps = -1;
+		WAVLNode node = getNodeByKey(k);
+		if (node.isInnerNode()) {
+			stats.recordDescent(depth(node));
+			steps = deleteFoundNode(node);
+		}
+		stats.recordDelete(steps, System.nanoTime() - start);
+		return steps;
+	}
+
+	/**
+	 * returns the number of inner nodes from the root down to node, node included
+	 */
+
+	private static int depth(WAVLNode node) {
+		int depth = 0;
+		for (; node != null; node = node.getParent())
+			depth++;
+		return depth;
+	}
+
+	private int deleteFoundNode(WAVLNode node) {
+		this._modCount++;
+		int k = node.getKey();
 		if (node.isBinary()) {
 			WAVLNode successor = node.getRightNode().min();
 			node.updateKeyAndValue(successor);
+			// the successor object leaves the tree, its item stays in node
+			if (this._max == successor)
+				this._max = node;
 			node = successor;
 		}
 
 		WAVLNode parent = deleteNode(node);
 
 		int steps = rebalanceAfterDeletion(parent);
-		updateNodeBranchAfterRebalance(parent);
 		updateMinMaxNodesAfterDeletion(k);
 		return steps;
 	}
 
+	/**
+	 * public int[] deleteAll(int[] keys)
+	 *
+	 * deletes the keys as if delete was called for each of them in increasing
+	 * order, and returns in results[j] what that call returned (-1 if the key is
+	 * not in the tree, also if it appears earlier in the batch). each search
+	 * starts next to the previously deleted node instead of the root, and subtree
+	 * sizes are fixed once at the end of the batch.
+	 */
+	public int[] deleteAll(int[] keys) {
+		long[] order = sortedBatch(keys);
+		int[] results = new int[keys.length];
+		WAVLNode finger = null;
+
+		beginDeferredSizes();
+		try {
+			for (long entry : order) {
+				int index = (int) entry;
+				int key = keys[index];
+				WAVLNode node = empty() ? EXTERNAL_NODE : searchFromFinger(finger, key);
+				if (!node.isInnerNode() || node.getKey() != key) {
+					results[index] = -1;
+					continue;
+				}
+
+				// a binary node stays in the tree with its successor's item,
+				// otherwise the parent of the removed node is the nearest survivor
+				finger = node.isBinary() ? node : node.getParent();
+				results[index] = deleteFoundNode(node);
+			}
+		} finally {
+			endDeferredSizes();
+		}
+		return results;
+	}
+
 	private void updateMinMaxNodesAfterDeletion(int deletedKey) {
 		if (empty()) {
-			this._min = new ExternaLWavlNode(null);
-			this._max = new ExternaLWavlNode(null);
+			this._min = EXTERNAL_NODE;
+			this._max = EXTERNAL_NODE;
 		} else {
 			if (this._min.getKey() == deletedKey)
 				this._min = this._root.min();
@@ -313,7 +1201,8 @@ public class WAVLTree {
 	private WAVLNode deleteNode(WAVLNode node) {
 		WAVLNode parent = node.getParent();
 		WAVLNode child = node.getLeftNode().isInnerNode() ? node.getLeftNode() : node.getRightNode();
-		child.setParent(parent);
+		if (child.isInnerNode())
+			child.setParent(parent);
 
 		if (parent == null) {
 			this._root = child;
@@ -332,22 +1221,43 @@ public class WAVLTree {
 
 	/**
 	 * rebalances the tree after deletion rebalancing returns number of steps needed
-	 * for
+	 * for. sizes are fixed in the same upward pass, once no case applies the tree
+	 * is valid and the nodes above only need their size decreased
 	 */
 	private int rebalanceAfterDeletion(WAVLNode node) {
+		WAVLTreeStats stats = this._stats;
 		int steps = 0;
 		while (node != null) {
+			decreaseNodeSize(node);
 			if (requiresDemotion(node)) {
 				demote(node);
+				if (stats != null)
+					stats.recordDemotion();
 				steps += 1;
 			} else if (requiresDoubleDemotion(node)) {
 				doubleDemote(node);
+				if (stats != null)
+					stats.recordDoubleDemotion();
 				steps += 2;
 			} else if (requiresSingleDeleteRotation(node)) {
-				return steps + singleDeleteRotation(node) + 3;
+				int demotions = singleDeleteRotation(node);
+				if (stats != null) {
+					stats.recordSingleRotation();
+					if (demotions != 0)
+						stats.recordDemotion();
+				}
+				steps += demotions + 3;
+				decreaseBranchSize(node.getParent().getParent());
+				return steps;
 			} else if (requiresDeleteDoubleRotation(node)) {
 				doubleDeleteRotation(node);
+				if (stats != null)
+					stats.recordDoubleRotation();
+				decreaseBranchSize(node.getParent().getParent());
 				return steps + 5;
+			} else {
+				decreaseBranchSize(node.getParent());
+				return steps;
 			}
 			node = node.getParent();
 		}
@@ -355,9 +1265,38 @@ public class WAVLTree {
 		return steps;
 	}
 
+	/**
+	 * decreases by 1 the size of a node and all of its ancestors
+	 */
+
+	private void decreaseBranchSize(WAVLNode node) {
+		if (this._deferSizes) {
+			markBranchDirty(node);
+			return;
+		}
+
+		while (node != null) {
+			node.decSize();
+			if (this._augmented)
+				updateAugmentation(node);
+			node = node.getParent();
+		}
+	}
+
+	private void decreaseNodeSize(WAVLNode node) {
+		if (this._deferSizes) {
+			markBranchDirty(node);
+		} else {
+			node.decSize();
+			if (this._augmented)
+				updateAugmentation(node);
+		}
+	}
+
 	private void demote(WAVLNode node) {
 		node.decLeftDiff();
 		node.decRightDiff();
+		node.decRank();
 		if (node.getParent() != null) {
 			if (node.getParent().isLeftChild(node))
 				node.getParent().incLeftDiff();
@@ -408,215 +1347,1229 @@ public class WAVLTree {
 			grandson.setLeftDiff(2);
 			grandson.setRightDiff(2);
 
-			rotate(grandson);
-			rotate(grandson);
+			rotate(grandson);
+			rotate(grandson);
+
+		} else {
+			WAVLNode grandson = node.getLeftNode().getRightNode();
+
+			node.setRightDiff(1);
+			node.setLeftDiff(grandson.getRightDiff());
+
+			node.getLeftNode().decLeftDiff();
+			node.getLeftNode().setRightDiff(grandson.getLeftDiff());
+
+			grandson.setRightDiff(2);
+			grandson.setLeftDiff(2);
+
+			rotate(grandson);
+			rotate(grandson);
+
+		}
+	}
+
+	/**
+	 * checks if case 1 of rebalancing after deletion is needed
+	 */
+
+	private boolean requiresDemotion(WAVLNode node) {
+		return (node.getRightDiff() == 3 && node.getLeftDiff() == 2)
+				|| (node.getLeftDiff() == 3 && node.getRightDiff() == 2)
+				|| (node.getLeftDiff() == 2 && node.getRightDiff() == 2 && node.isLeaf());
+	}
+
+	/**
+	 * checks if case 2 of rebalancing after deletion is needed
+	 */
+
+	private boolean requiresDoubleDemotion(WAVLNode node) {
+		return (node.getRightDiff() == 3 && node.getLeftDiff() == 1 && node.getLeftNode().getLeftDiff() == 2
+				&& node.getLeftNode().getRightDiff() == 2)
+				|| (node.getLeftDiff() == 3 && node.getRightDiff() == 1 && node.getRightNode().getRightDiff() == 2
+						&& node.getRightNode().getLeftDiff() == 2);
+	}
+
+	/**
+	 * checks if case 3 of rebalancing after deletion is needed
+	 */
+
+	private boolean requiresSingleDeleteRotation(WAVLNode node) {
+		return (node.getRightDiff() == 3 && node.getLeftDiff() == 1 && node.getLeftNode().getLeftDiff() == 1)
+				|| (node.getLeftDiff() == 3 && node.getRightDiff() == 1 && node.getRightNode().getRightDiff() == 1);
+	}
+
+	/**
+	 * checks if case 4 of rebalancing after deletion is needed
+	 */
+
+	private boolean requiresDeleteDoubleRotation(WAVLNode node) {
+		return (node.getRightDiff() == 3 && node.getLeftDiff() == 1 && node.getLeftNode().getLeftDiff() == 2)
+				|| (node.getLeftDiff() == 3 && node.getRightDiff() == 1 && node.getRightNode().getRightDiff() == 2);
+	}
+
+	private void updateNodeBranchAfterRebalance(WAVLNode node) {
+		if (this._deferSizes) {
+			markBranchDirty(node);
+			return;
+		}
+
+		while (node != null) {
+			updateNodeSize(node);
+			node = node.getParent();
+		}
+	}
+
+	/**
+	 * starts a batch in which sizes are not updated, nodes whose subtree changed
+	 * are marked with DIRTY_SIZE instead
+	 */
+
+	private void beginDeferredSizes() {
+		this._deferSizes = true;
+	}
+
+	/**
+	 * ends a batch, recomputing the sizes of the marked nodes only
+	 */
+
+	private void endDeferredSizes() {
+		this._deferSizes = false;
+		recomputeDirtySizes(this._root);
+	}
+
+	/**
+	 * marks a node and its ancestors as dirty, stops at the first ancestor that is
+	 * already marked since all of its ancestors are marked too
+	 */
+
+	private void markBranchDirty(WAVLNode node) {
+		while (node != null && node.getSubtreeSize() != DIRTY_SIZE) {
+			node.setSize(DIRTY_SIZE);
+			node = node.getParent();
+		}
+	}
+
+	private int recomputeDirtySizes(WAVLNode node) {
+		if (node.getSubtreeSize() != DIRTY_SIZE)
+			return node.getSubtreeSize();
+
+		int size = recomputeDirtySizes(node.getLeftNode()) + recomputeDirtySizes(node.getRightNode()) + 1;
+		node.setSize(size);
+		if (this._augmented)
+			updateAugmentation(node);
+		return size;
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree, or null if
+	 * the tree is empty
+	 */
+	public String min() {
+		return this._min.getValue();
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree, or null if the
+	 * tree is empty
+	 */
+	public String max() {
+		return this._max.getValue();
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree, or an empty array
+	 * if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		int[] arr = new int[size()];
+		int index = 0;
+		for (WAVLNode node = firstNode(); node != null; node = successor(node))
+			arr[index++] = node.getKey();
+		return arr;
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree, sorted by their
+	 * respective keys, or an empty array if the tree is empty.
+	 */
+	public String[] infoToArray() {
+		String[] arr = new String[size()];
+		int index = 0;
+		for (WAVLNode node = firstNode(); node != null; node = successor(node))
+			arr[index++] = node.getValue();
+		return arr;
+	}
+
+	/**
+	 * public void forEachKey(IntConsumer action)
+	 *
+	 * Calls action with every key in increasing order. The traversal follows the
+	 * parent links, so it needs no stack and allocates nothing.
+	 */
+	public void forEachKey(IntConsumer action) {
+		for (WAVLNode node = firstNode(); node != null; node = successor(node))
+			action.accept(node.getKey());
+	}
+
+	/**
+	 * public void forEach(KeyValueConsumer action)
+	 *
+	 * Calls action with every key and its info in increasing key order, without
+	 * allocating.
+	 */
+	public void forEach(KeyValueConsumer action) {
+		for (WAVLNode node = firstNode(); node != null; node = successor(node))
+			action.accept(node.getKey(), node.getValue());
+	}
+
+	/**
+	 * a visitor of the items of a tree, takes the key unboxed
+	 */
+
+	@FunctionalInterface
+	public interface KeyValueConsumer {
+		void accept(int key, String value);
+	}
+
+	/**
+	 * returns the node with the minimal key, or null if the tree is empty
+	 */
+
+	WAVLNode firstNode() {
+		return this._min.isInnerNode() ? this._min : null;
+	}
+
+	/**
+	 * returns the node with the maximal key, or null if the tree is empty
+	 */
+
+	WAVLNode lastNode() {
+		return this._max.isInnerNode() ? this._max : null;
+	}
+
+	/**
+	 * returns the node with key k, or null if there is none
+	 */
+
+	WAVLNode findNode(int k) {
+		WAVLNode node = getNodeByKey(k);
+		return node.isInnerNode() ? node : null;
+	}
+
+	/**
+	 * deletes the item of an inner node like delete. if the node is binary it
+	 * stays in the tree and takes the item of its successor, whose node leaves
+	 * the tree instead
+	 */
+
+	int removeNode(WAVLNode node) {
+		return deleteFoundNode(node);
+	}
+
+	/**
+	 * removes all items
+	 */
+
+	void clear() {
+		setBuiltRoot(EXTERNAL_NODE);
+	}
+
+	/**
+	 * returns the number of structural changes so far, setting an info is not one
+	 */
+
+	int modCount() {
+		return this._modCount;
+	}
+
+	/**
+	 * sets the info of a node of this tree, and updates the augmentation of its
+	 * branch since it may depend on the info
+	 */
+
+	void setNodeValue(WAVLNode node, String value) {
+		node.setValue(value);
+		if (this._augmented) {
+			for (; node != null; node = node.getParent())
+				updateAugmentation(node);
+		}
+	}
+
+	/**
+	 * public void setStats(WAVLTreeStats stats)
+	 *
+	 * starts recording into stats, or stops recording if stats is null. the
+	 * rebalancing of every operation is recorded, the descent and latency only
+	 * for insert and delete
+	 */
+	public void setStats(WAVLTreeStats stats) {
+		this._stats = stats;
+	}
+
+	/**
+	 * public WAVLTreeStats getStats()
+	 *
+	 * returns the stats the tree records into, or null if it records nothing
+	 */
+	public WAVLTreeStats getStats() {
+		return this._stats;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of inner nodes in the tree.
+	 *
+	 */
+	public int size() {
+		return this._root.getSubtreeSize();
+	}
+
+	/**
+	 * public int treeRank()
+	 *
+	 * Returns the rank of the root in O(1), or -1 if the tree is empty. The height
+	 * of the tree is at least (treeRank() + 1) / 2 and at most treeRank(), and
+	 * treeRank() is at most 2log(n).
+	 *
+	 */
+	public int treeRank() {
+		return this._root.getRank();
+	}
+
+	/**
+	 * public WAVLNode getRoot()
+	 *
+	 * Returns the root WAVL node, or null if the tree is empty
+	 *
+	 */
+	public WAVLNode getRoot() {
+		return this._root;
+	}
+
+	/**
+	 * public int select(int i)
+	 *
+	 * Returns the value of the i'th smallest key (return -1 if tree is empty)
+	 * Example 1: select(1) returns the value of the node with minimal key Example
+	 * 2: select(size()) returns the value of the node with maximal key Example 3:
+	 * select(2) returns the value 2nd smallest minimal node, i.e the value of the
+	 * node minimal node's successor
+	 *
+	 */
+	public String select(int i) {
+		WAVLNode node = selectNodeFromRoot(i);
+		return node == null ? null : node.getValue();
+	}
+
+	/**
+	 * public String select(int i, SelectCursor cursor)
+	 *
+	 * Returns the value of the i'th smallest key like select(i), and moves cursor
+	 * to it. the search starts at the node of the cursor if the tree has not
+	 * changed since the cursor was last used with it, so selecting i, i + 1, i +
+	 * 2, ... costs amortized O(1) per call and selecting ranks d apart costs
+	 * O(log d). the cursor belongs to the caller, threads that read the same tree
+	 * each use their own.
+	 *
+	 */
+	public String select(int i, SelectCursor cursor) {
+		i--;
+
+		if (i < 0 || this.size() < i + 1)
+			return null;
+
+		// a far away index is found faster from the root than by climbing to it
+		WAVLNode node;
+		if (cursor._tree == this && cursor._modCount == this._modCount
+				&& Math.abs(i - cursor._index) <= (size() >>> SELECT_FINGER_REACH))
+			node = selectFromFinger(cursor._node, cursor._index, i);
+		else
+			node = selectNode(this._root, i);
+		cursor._tree = this;
+		cursor._node = node;
+		cursor._index = i;
+		cursor._modCount = this._modCount;
+		return node.getValue();
+	}
+
+	/**
+	 *
+	 * SelectCursor
+	 *
+	 * The position of the last select(i, cursor): a node, its 0-based index and
+	 * the version of the tree it was found in. A cursor is not thread safe and
+	 * keeps the node it points to reachable, a new one starts at the root.
+	 *
+	 */
+	public static class SelectCursor {
+		private WAVLTree _tree;
+		private WAVLNode _node;
+		private int _index;
+		private int _modCount;
+
+		/**
+		 * public void reset()
+		 *
+		 * lets go of the node, the next select starts at the root
+		 */
+		public void reset() {
+			this._tree = null;
+			this._node = null;
+		}
+	}
+
+	/**
+	 * returns the node of the i'th smallest key like select, or null if i is out
+	 * of range
+	 */
+
+	WAVLNode selectNodeFromRoot(int i) {
+		i--;
+
+		if (i < 0 || this.size() < i + 1)
+			return null;
+
+		return selectNode(this._root, i);
+	}
+
+	/**
+	 * returns the node at the 0-based in-order index i, starting from node at
+	 * index index: climbs to the lowest ancestor whose subtree contains index i,
+	 * then descends to it
+	 */
+
+	private static WAVLNode selectFromFinger(WAVLNode node, int index, int i) {
+		// the subtree of node holds the indexes index - left size to index + right size
+		while (i < index - node.getLeftNode().getSubtreeSize() || i > index + node.getRightNode().getSubtreeSize()) {
+			WAVLNode parent = node.getParent();
+			if (parent.isLeftChild(node))
+				index += node.getRightNode().getSubtreeSize() + 1;
+			else
+				index -= node.getLeftNode().getSubtreeSize() + 1;
+			node = parent;
+		}
+		return selectNode(node, i - index + node.getLeftNode().getSubtreeSize());
+	}
+
+	/**
+	 * returns the node at the 0-based in-order index i of the subtree of node, i
+	 * must be smaller than the size of the subtree
+	 */
+
+	private static WAVLNode selectNode(WAVLNode node, int i) {
+		while (true) {
+			int leftSize = node.getLeftNode().getSubtreeSize();
+			if (i == leftSize)
+				return node;
+			if (i < leftSize)
+				node = node.getLeftNode();
+			else {
+				i = i - leftSize - 1;
+				node = node.getRightNode();
+			}
+		}
+	}
+
+	/**
+	 * public String successor(int k)
+	 *
+	 * returns the info of the item with the smallest key larger than k, or null if
+	 * there is none. k does not have to be in the tree
+	 */
+	public String successor(int k) {
+		WAVLNode node = higherNode(k);
+		return node == null ? null : node.getValue();
+	}
+
+	/**
+	 * public String predecessor(int k)
+	 *
+	 * returns the info of the item with the largest key smaller than k, or null if
+	 * there is none. k does not have to be in the tree
+	 */
+	public String predecessor(int k) {
+		WAVLNode node = lowerNode(k);
+		return node == null ? null : node.getValue();
+	}
+
+	/**
+	 * public int rank(int k)
+	 *
+	 * Returns the number of keys smaller than k in O(log n), the inverse of
+	 * select: select(rank(k) + 1) is the info of k if k is in the tree.
+	 *
+	 */
+	public int rank(int k) {
+		int rank = 0;
+		WAVLNode node = this._root;
+
+		while (node.isInnerNode()) {
+			if (node.getKey() < k) {
+				rank += node.getLeftNode().getSubtreeSize() + 1;
+				node = node.getRightNode();
+			} else {
+				node = node.getLeftNode();
+			}
+		}
+		return rank;
+	}
+
+	/**
+	 * public int rangeCount(int lo, int hi)
+	 *
+	 * Returns the number of keys k with lo <= k < hi in O(log n).
+	 *
+	 */
+	public int rangeCount(int lo, int hi) {
+		return lo < hi ? rank(hi) - rank(lo) : 0;
+	}
+
+	/**
+	 * public Iterator<WAVLNode> range(int lo, int hi)
+	 *
+	 * Returns a lazy iterator over the nodes with lo <= key < hi in key order. It
+	 * descends once to the first node and then walks successors through the parent
+	 * links, without copying the keys. The tree must not be modified while
+	 * iterating.
+	 *
+	 */
+	public Iterator<WAVLNode> range(int lo, int hi) {
+		return new RangeIterator(lo < hi ? ceilingNode(lo) : null, hi);
+	}
+
+	/**
+	 * public Spliterator<WAVLNode> rangeSpliterator(int lo, int hi)
+	 *
+	 * Returns a spliterator over the same nodes as range(lo, hi). It covers the
+	 * in-order indices rank(lo) to rank(hi) and splits them exactly in half like
+	 * the spliterator of entryStream().
+	 *
+	 */
+	public Spliterator<WAVLNode> rangeSpliterator(int lo, int hi) {
+		int from = rank(lo);
+		return new EntrySpliterator(this._root, from, lo < hi ? rank(hi) : from, null);
+	}
+
+	/**
+	 * public Stream<String> stream()
+	 *
+	 * Returns a stream of all infos in key order. The stream splits exactly in
+	 * half using the subtree sizes, so parallel streams need no copy of the tree.
+	 * The tree must not be modified while the stream is used.
+	 *
+	 */
+	public Stream<String> stream() {
+		return StreamSupport.stream(new ValueSpliterator(this._root, 0, size(), null), false);
+	}
+
+	/**
+	 * public IntStream keyStream()
+	 *
+	 * Returns a stream of all keys in increasing order, split like stream().
+	 *
+	 */
+	public IntStream keyStream() {
+		return StreamSupport.intStream(new KeySpliterator(this._root, 0, size(), null), false);
+	}
+
+	/**
+	 * public Stream<WAVLNode> entryStream()
+	 *
+	 * Returns a stream of all nodes in key order, split like stream().
+	 *
+	 */
+	public Stream<WAVLNode> entryStream() {
+		return StreamSupport.stream(new EntrySpliterator(this._root, 0, size(), null), false);
+	}
+
+	/**
+	 * returns the node with the smallest key larger than or equal to key, or null
+	 */
+
+	WAVLNode ceilingNode(int key) {
+		WAVLNode ceiling = null;
+		WAVLNode node = this._root;
+
+		while (node.isInnerNode()) {
+			if (node.getKey() == key)
+				return node;
+			if (node.getKey() > key) {
+				ceiling = node;
+				node = node.getLeftNode();
+			} else {
+				node = node.getRightNode();
+			}
+		}
+		return ceiling;
+	}
+
+	/**
+	 * returns the node with the smallest key strictly larger than key, or null
+	 */
+
+	WAVLNode higherNode(int key) {
+		WAVLNode higher = null;
+		WAVLNode node = this._root;
+
+		while (node.isInnerNode()) {
+			if (node.getKey() > key) {
+				higher = node;
+				node = node.getLeftNode();
+			} else {
+				node = node.getRightNode();
+			}
+		}
+		return higher;
+	}
+
+	/**
+	 * returns the node with the largest key smaller than or equal to key, or null
+	 */
+
+	WAVLNode floorNode(int key) {
+		WAVLNode floor = null;
+		WAVLNode node = this._root;
+
+		while (node.isInnerNode()) {
+			if (node.getKey() == key)
+				return node;
+			if (node.getKey() < key) {
+				floor = node;
+				node = node.getRightNode();
+			} else {
+				node = node.getLeftNode();
+			}
+		}
+		return floor;
+	}
+
+	/**
+	 * returns the node with the largest key strictly smaller than key, or null
+	 */
+
+	WAVLNode lowerNode(int key) {
+		WAVLNode lower = null;
+		WAVLNode node = this._root;
+
+		while (node.isInnerNode()) {
+			if (node.getKey() < key) {
+				lower = node;
+				node = node.getRightNode();
+			} else {
+				node = node.getLeftNode();
+			}
+		}
+		return lower;
+	}
+
+	/**
+	 * returns the node with the next larger key, or null for the maximal node.
+	 * amortized O(1) when walking over consecutive nodes
+	 */
+
+	static WAVLNode successor(WAVLNode node) {
+		if (node.getRightNode().isInnerNode())
+			return node.getRightNode().min();
+
+		WAVLNode parent = node.getParent();
+		while (parent != null && !parent.isLeftChild(node)) {
+			node = parent;
+			parent = parent.getParent();
+		}
+		return parent;
+	}
+
+	/**
+	 * returns the node with the next smaller key, or null for the minimal node.
+	 * amortized O(1) when walking over consecutive nodes
+	 */
+
+	static WAVLNode predecessor(WAVLNode node) {
+		if (node.getLeftNode().isInnerNode())
+			return node.getLeftNode().max();
+
+		WAVLNode parent = node.getParent();
+		while (parent != null && parent.isLeftChild(node)) {
+			node = parent;
+			parent = parent.getParent();
+		}
+		return parent;
+	}
+
+	/**
+	 * orders nodes by their keys
+	 */
+	private static final Comparator<WAVLNode> KEY_ORDER = Comparator.comparingInt(WAVLNode::getKey);
+
+	/**
+	 * walks the in-order indices [index, fence) of the subtree of root. the first
+	 * node is found with selectNode when needed, the next ones with successor.
+	 * splitting cuts the index range exactly in half, which the subtree sizes make
+	 * possible without walking the nodes
+	 */
+
+	private abstract static class InOrderSpliterator {
+		static final int CHARACTERISTICS = Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.ORDERED;
+
+		final WAVLNode _root;
+		int _index;
+		final int _fence;
+		WAVLNode _next;
+
+		InOrderSpliterator(WAVLNode root, int index, int fence, WAVLNode next) {
+			this._root = root;
+			this._index = index;
+			this._fence = fence;
+			this._next = next;
+		}
+
+		/**
+		 * returns the next node, or null if the range is exhausted
+		 */
+
+		final WAVLNode nextNode() {
+			if (this._index >= this._fence)
+				return null;
+
+			WAVLNode node = this._next != null ? this._next : selectNode(this._root, this._index);
+			this._index++;
+			this._next = this._index < this._fence ? successor(node) : null;
+			return node;
+		}
+
+		/**
+		 * returns the index at which to split, or -1 if the range is too small
+		 */
+
+		final int splitIndex() {
+			int middle = (this._index + this._fence) >>> 1;
+			return middle > this._index ? middle : -1;
+		}
+
+		/**
+		 * drops the prefix of the range up to middle, which a new spliterator takes
+		 */
+
+		final void skipTo(int middle) {
+			this._index = middle;
+			this._next = null;
+		}
+
+		public long estimateSize() {
+			return this._fence - this._index;
+		}
+	}
+
+	private static class EntrySpliterator extends InOrderSpliterator implements Spliterator<WAVLNode> {
+		EntrySpliterator(WAVLNode root, int index, int fence, WAVLNode next) {
+			super(root, index, fence, next);
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super WAVLNode> action) {
+			WAVLNode node = nextNode();
+			if (node == null)
+				return false;
+			action.accept(node);
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super WAVLNode> action) {
+			for (WAVLNode node = nextNode(); node != null; node = nextNode())
+				action.accept(node);
+		}
+
+		@Override
+		public Spliterator<WAVLNode> trySplit() {
+			int middle = splitIndex();
+			if (middle < 0)
+				return null;
+
+			EntrySpliterator prefix = new EntrySpliterator(this._root, this._index, middle, this._next);
+			skipTo(middle);
+			return prefix;
+		}
+
+		@Override
+		public int characteristics() {
+			return CHARACTERISTICS | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL;
+		}
+
+		@Override
+		public Comparator<? super WAVLNode> getComparator() {
+			return KEY_ORDER;
+		}
+	}
+
+	private static class KeySpliterator extends InOrderSpliterator implements Spliterator.OfInt {
+		KeySpliterator(WAVLNode root, int index, int fence, WAVLNode next) {
+			super(root, index, fence, next);
+		}
+
+		@Override
+		public boolean tryAdvance(IntConsumer action) {
+			WAVLNode node = nextNode();
+			if (node == null)
+				return false;
+			action.accept(node.getKey());
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(IntConsumer action) {
+			for (WAVLNode node = nextNode(); node != null; node = nextNode())
+				action.accept(node.getKey());
+		}
+
+		@Override
+		public Spliterator.OfInt trySplit() {
+			int middle = splitIndex();
+			if (middle < 0)
+				return null;
+
+			KeySpliterator prefix = new KeySpliterator(this._root, this._index, middle, this._next);
+			skipTo(middle);
+			return prefix;
+		}
+
+		@Override
+		public int characteristics() {
+			return CHARACTERISTICS | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL;
+		}
+
+		@Override
+		public Comparator<? super Integer> getComparator() {
+			return null;
+		}
+	}
+
+	/**
+	 * infos may repeat and are not sorted themselves, so this spliterator is only
+	 * ORDERED
+	 */
 
-		} else {
-			WAVLNode grandson = node.getLeftNode().getRightNode();
+	private static class ValueSpliterator extends InOrderSpliterator implements Spliterator<String> {
+		ValueSpliterator(WAVLNode root, int index, int fence, WAVLNode next) {
+			super(root, index, fence, next);
+		}
 
-			node.setRightDiff(1);
-			node.setLeftDiff(grandson.getRightDiff());
+		@Override
+		public boolean tryAdvance(Consumer<? super String> action) {
+			WAVLNode node = nextNode();
+			if (node == null)
+				return false;
+			action.accept(node.getValue());
+			return true;
+		}
 
-			node.getLeftNode().decLeftDiff();
-			node.getLeftNode().setRightDiff(grandson.getLeftDiff());
+		@Override
+		public void forEachRemaining(Consumer<? super String> action) {
+			for (WAVLNode node = nextNode(); node != null; node = nextNode())
+				action.accept(node.getValue());
+		}
 
-			grandson.setRightDiff(2);
-			grandson.setLeftDiff(2);
+		@Override
+		public Spliterator<String> trySplit() {
+			int middle = splitIndex();
+			if (middle < 0)
+				return null;
 
-			rotate(grandson);
-			rotate(grandson);
+			ValueSpliterator prefix = new ValueSpliterator(this._root, this._index, middle, this._next);
+			skipTo(middle);
+			return prefix;
+		}
 
+		@Override
+		public int characteristics() {
+			return CHARACTERISTICS;
 		}
 	}
 
 	/**
-	 * checks if case 1 of rebalancing after deletion is needed
+	 * iterates over the nodes from a first node up to an exclusive key bound
 	 */
 
-	private boolean requiresDemotion(WAVLNode node) {
-		return (node.getRightDiff() == 3 && node.getLeftDiff() == 2)
-				|| (node.getLeftDiff() == 3 && node.getRightDiff() == 2)
-				|| (node.getLeftDiff() == 2 && node.getRightDiff() == 2 && node.isLeaf());
+	private static class RangeIterator implements Iterator<WAVLNode> {
+		private WAVLNode _next;
+		private final int _hi;
+
+		RangeIterator(WAVLNode first, int hi) {
+			this._hi = hi;
+			this._next = first != null && first.getKey() < hi ? first : null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this._next != null;
+		}
+
+		@Override
+		public WAVLNode next() {
+			WAVLNode node = this._next;
+			if (node == null)
+				throw new NoSuchElementException();
+
+			WAVLNode next = successor(node);
+			this._next = next != null && next.getKey() < this._hi ? next : null;
+			return node;
+		}
 	}
 
 	/**
-	 * checks if case 2 of rebalancing after deletion is needed
+	 * public static WAVLTree join(WAVLTree left, int pivotKey, String pivotValue,
+	 * WAVLTree right)
+	 *
+	 * returns a tree of all items of left, the item (pivotKey, pivotValue) and all
+	 * items of right in O(|left.treeRank() - right.treeRank()| + 1). all keys of
+	 * left must be smaller and all keys of right larger than pivotKey. the nodes
+	 * of left and right are moved to the new tree, both are empty afterwards.
 	 */
-
-	private boolean requiresDoubleDemotion(WAVLNode node) {
-		return (node.getRightDiff() == 3 && node.getLeftDiff() == 1 && node.getLeftNode().getLeftDiff() == 2
-				&& node.getLeftNode().getRightDiff() == 2)
-				|| (node.getLeftDiff() == 3 && node.getRightDiff() == 1 && node.getRightNode().getRightDiff() == 2
-						&& node.getRightNode().getLeftDiff() == 2);
+	public static WAVLTree join(WAVLTree left, int pivotKey, String pivotValue, WAVLTree right) {
+		if ((!left.empty() && left._max.getKey() >= pivotKey) || (!right.empty() && right._min.getKey() <= pivotKey))
+			throw new IllegalArgumentException("keys of left must be smaller and keys of right larger than " + pivotKey);
+
+		WAVLTree tree = new WAVLTree();
+		tree.setBuiltRoot(tree.joinNodes(left._root, new WAVLNode(pivotKey, pivotValue, null), right._root));
+		left.setBuiltRoot(EXTERNAL_NODE);
+		right.setBuiltRoot(EXTERNAL_NODE);
+		return tree;
 	}
 
 	/**
-	 * checks if case 3 of rebalancing after deletion is needed
+	 * public WAVLTree[] split(int k)
+	 *
+	 * splits the tree in O(log n) into two trees, the first with all keys smaller
+	 * than k and the second with all keys larger than or equal to k. the nodes are
+	 * moved to the new trees, this tree is empty afterwards.
 	 */
-
-	private boolean requiresSingleDeleteRotation(WAVLNode node) {
-		return (node.getRightDiff() == 3 && node.getLeftDiff() == 1 && node.getLeftNode().getLeftDiff() == 1)
-				|| (node.getLeftDiff() == 3 && node.getRightDiff() == 1 && node.getRightNode().getRightDiff() == 1);
+	public WAVLTree[] split(int k) {
+		WAVLTree smaller = new WAVLTree();
+		WAVLTree larger = new WAVLTree();
+		WAVLNode[] parts = splitNodes(this._root, k);
+		WAVLNode largerRoot = parts[1] == null ? parts[2] : joinNodes(EXTERNAL_NODE, parts[1], parts[2]);
+
+		smaller.setBuiltRoot(parts[0]);
+		larger.setBuiltRoot(largerRoot);
+		setBuiltRoot(EXTERNAL_NODE);
+		return new WAVLTree[] { smaller, larger };
 	}
 
 	/**
-	 * checks if case 4 of rebalancing after deletion is needed
+	 * public static WAVLTree union(WAVLTree a, WAVLTree b)
+	 *
+	 * returns a tree of all keys in a or b in O(m log(n/m + 1)) for sizes m <= n,
+	 * using the infos of a for keys in both. the nodes are moved to the new tree,
+	 * a and b are empty afterwards.
 	 */
-
-	private boolean requiresDeleteDoubleRotation(WAVLNode node) {
-		return (node.getRightDiff() == 3 && node.getLeftDiff() == 1 && node.getLeftNode().getLeftDiff() == 2)
-				|| (node.getLeftDiff() == 3 && node.getRightDiff() == 1 && node.getRightNode().getRightDiff() == 2);
+	public static WAVLTree union(WAVLTree a, WAVLTree b) {
+		WAVLTree tree = new WAVLTree();
+		tree.setBuiltRoot(tree.unionNodes(a._root, b._root));
+		a.setBuiltRoot(EXTERNAL_NODE);
+		b.setBuiltRoot(EXTERNAL_NODE);
+		return tree;
 	}
 
-	private void updateNodeBranchAfterRebalance(WAVLNode node) {
-		while (node != null) {
-			updateNodeSize(node);
-			node = node.getParent();
-		}
+	/**
+	 * public static WAVLTree intersection(WAVLTree a, WAVLTree b)
+	 *
+	 * returns a tree of the keys in both a and b with the infos of a in O(m log(n/m
+	 * + 1)). a and b are empty afterwards.
+	 */
+	public static WAVLTree intersection(WAVLTree a, WAVLTree b) {
+		WAVLTree tree = new WAVLTree();
+		tree.setBuiltRoot(tree.intersectNodes(a._root, b._root));
+		a.setBuiltRoot(EXTERNAL_NODE);
+		b.setBuiltRoot(EXTERNAL_NODE);
+		return tree;
 	}
 
 	/**
-	 * public String min()
+	 * public static WAVLTree difference(WAVLTree a, WAVLTree b)
 	 *
-	 * Returns the info of the item with the smallest key in the tree, or null if
-	 * the tree is empty
+	 * returns a tree of the keys in a that are not in b in O(m log(n/m + 1)). a
+	 * and b are empty afterwards.
 	 */
-	public String min() {
-		return this._min.getValue();
+	public static WAVLTree difference(WAVLTree a, WAVLTree b) {
+		WAVLTree tree = new WAVLTree();
+		tree.setBuiltRoot(tree.differenceNodes(a._root, b._root));
+		a.setBuiltRoot(EXTERNAL_NODE);
+		b.setBuiltRoot(EXTERNAL_NODE);
+		return tree;
 	}
 
 	/**
-	 * public String max()
+	 * public static WAVLTree parallelUnion(WAVLTree a, WAVLTree b, int grainSize)
 	 *
-	 * Returns the info of the item with the largest key in the tree, or null if the
-	 * tree is empty
+	 * same as union, but the two recursive calls run in parallel on the fork-join
+	 * pool of the calling thread while the inputs have more than grainSize nodes
+	 * together. runs like union when the pool has a parallelism of 1.
 	 */
-	public String max() {
-		return this._max.getValue();
+	public static WAVLTree parallelUnion(WAVLTree a, WAVLTree b, int grainSize) {
+		return parallelSetOperation(SetOperationTask.UNION, a, b, grainSize);
 	}
 
 	/**
-	 * public int[] keysToArray()
+	 * public static WAVLTree parallelIntersection(WAVLTree a, WAVLTree b, int
+	 * grainSize)
 	 *
-	 * Returns a sorted array which contains all keys in the tree, or an empty array
-	 * if the tree is empty.
+	 * same as intersection, computed in parallel like parallelUnion
 	 */
-	public int[] keysToArray() {
-		if (this.empty())
-			return new int[0];
-
-		Integer[] arr = new Integer[this._root.getSubtreeSize()];
-		Function<WAVLNode, Integer> filler = (WAVLNode node) -> {
-			return node.getKey();
-		};
-		fillArrayInOrder(arr, filler);
-		int[] results = new int[arr.length];
-		for (int i = 0; i < arr.length; i++)
-			results[i] = arr[i];
-		return results;
+	public static WAVLTree parallelIntersection(WAVLTree a, WAVLTree b, int grainSize) {
+		return parallelSetOperation(SetOperationTask.INTERSECTION, a, b, grainSize);
 	}
 
 	/**
-	 * public String[] infoToArray()
+	 * public static WAVLTree parallelDifference(WAVLTree a, WAVLTree b, int
+	 * grainSize)
 	 *
-	 * Returns an array which contains all info in the tree, sorted by their
-	 * respective keys, or an empty array if the tree is empty.
+	 * same as difference, computed in parallel like parallelUnion
 	 */
-	public String[] infoToArray() {
-		if (this.empty())
-			return new String[0];
-
-		String[] arr = new String[this._root.getSubtreeSize()];
-		Function<WAVLNode, String> filler = (WAVLNode node) -> {
-			return node.getValue();
-		};
-		fillArrayInOrder(arr, filler);
-		return arr;
+	public static WAVLTree parallelDifference(WAVLTree a, WAVLTree b, int grainSize) {
+		return parallelSetOperation(SetOperationTask.DIFFERENCE, a, b, grainSize);
+	}
+
+	private static WAVLTree parallelSetOperation(int operation, WAVLTree a, WAVLTree b, int grainSize) {
+		checkGrainSize(grainSize);
+
+		WAVLTree tree = new WAVLTree();
+		SetOperationTask task = new SetOperationTask(operation, a._root, b._root, grainSize);
+		if (parallel(a._root.getSubtreeSize() + b._root.getSubtreeSize(), grainSize))
+			tree.setBuiltRoot(task.invoke());
+		else
+			tree.setBuiltRoot(task.computeSequentially(tree));
+		a.setBuiltRoot(EXTERNAL_NODE);
+		b.setBuiltRoot(EXTERNAL_NODE);
+		return tree;
 	}
 
 	/**
-	 * Algorithm for a non-recursive in-order traversal returns an array in which
-	 * nodes are sorted by their keys
+	 * one step of a parallel set operation on detached subtrees. the subtrees of
+	 * the two recursive calls are disjoint, and each task joins with its own
+	 * workspace tree, so tasks share no mutable state
 	 */
 
-	private <T> void fillArrayInOrder(T[] arr, Function<WAVLNode, T> filler) {
-		int index = 0;
-		WAVLNode node = this._root;
-		LinkedList<WAVLNode> stack = new LinkedList<>();
-		addLeftBranch(node, stack);
+	private static class SetOperationTask extends RecursiveTask<WAVLNode> {
+		private static final long serialVersionUID = 1L;
+
+		static final int UNION = 0;
+		static final int INTERSECTION = 1;
+		static final int DIFFERENCE = 2;
+
+		private final int _operation;
+		private final WAVLNode _a;
+		private final WAVLNode _b;
+		private final int _grainSize;
+
+		SetOperationTask(int operation, WAVLNode a, WAVLNode b, int grainSize) {
+			this._operation = operation;
+			this._a = a;
+			this._b = b;
+			this._grainSize = grainSize;
+		}
+
+		@Override
+		protected WAVLNode compute() {
+			WAVLTree workspace = new WAVLTree();
+			if (!this._a.isInnerNode() || !this._b.isInnerNode()
+					|| this._a.getSubtreeSize() + this._b.getSubtreeSize() <= this._grainSize)
+				return computeSequentially(workspace);
+
+			// difference splits a by the root of b, the other operations b by the root of a
+			boolean difference = this._operation == DIFFERENCE;
+			WAVLNode pivot = difference ? this._b : this._a;
+			WAVLNode left = detach(pivot.getLeftNode());
+			WAVLNode right = detach(pivot.getRightNode());
+			WAVLNode[] parts = workspace.splitNodes(difference ? this._a : this._b, pivot.getKey());
+
+			SetOperationTask smallerTask = difference ? subtask(parts[0], left) : subtask(left, parts[0]);
+			SetOperationTask largerTask = difference ? subtask(parts[2], right) : subtask(right, parts[2]);
+			smallerTask.fork();
+			WAVLNode larger = largerTask.compute();
+			WAVLNode smaller = smallerTask.join();
+
+			if (this._operation == UNION || (this._operation == INTERSECTION && parts[1] != null))
+				return workspace.joinNodes(smaller, this._a, larger);
+			return workspace.joinNodes(smaller, larger);
+		}
 
-		while (!stack.isEmpty()) {
-			node = stack.removeLast();
-			arr[index] = filler.apply(node);
-			index++;
-			addLeftBranch(node.getRightNode(), stack);
+		private SetOperationTask subtask(WAVLNode a, WAVLNode b) {
+			return new SetOperationTask(this._operation, a, b, this._grainSize);
+		}
+
+		private WAVLNode computeSequentially(WAVLTree workspace) {
+			switch (this._operation) {
+			case UNION:
+				return workspace.unionNodes(this._a, this._b);
+			case INTERSECTION:
+				return workspace.intersectNodes(this._a, this._b);
+			default:
+				return workspace.differenceNodes(this._a, this._b);
+			}
 		}
 	}
 
 	/**
-	 * adds the left branch of a tree to a LinkedList each node is added last
+	 * joins two detached subtrees and a detached pivot node whose key lies between
+	 * them, returns the root of the joined subtree. the pivot is hung on the spine
+	 * of the higher subtree at the first node whose rank is close enough to the
+	 * lower one, and the tree is rebalanced from there like after an insertion.
+	 * this tree is only used as workspace, rotate may overwrite its root.
 	 */
 
-	private void addLeftBranch(WAVLNode node, LinkedList<WAVLNode> stack) {
-		while (node.isInnerNode()) {
-			stack.addLast(node);
-			node = node.getLeftNode();
+	private WAVLNode joinNodes(WAVLNode left, WAVLNode pivot, WAVLNode right) {
+		int leftRank = left.getRank();
+		int rightRank = right.getRank();
+
+		if (Math.abs(leftRank - rightRank) <= 1) {
+			linkChildren(pivot, left, right);
+			pivot.setParent(null);
+			return pivot;
+		}
+
+		WAVLNode parent;
+		if (leftRank > rightRank) {
+			parent = left;
+			while (parent.getRightNode().getRank() > rightRank + 1)
+				parent = parent.getRightNode();
+
+			linkChildren(pivot, parent.getRightNode(), right);
+			parent.setRight(pivot);
+			parent.setRightDiff(parent.getRank() - pivot.getRank() + 1);
+		} else {
+			parent = right;
+			while (parent.getLeftNode().getRank() > leftRank + 1)
+				parent = parent.getLeftNode();
+
+			linkChildren(pivot, left, parent.getLeftNode());
+			parent.setLeft(pivot);
+			parent.setLeftDiff(parent.getRank() - pivot.getRank() + 1);
 		}
+		pivot.setParent(parent);
+
+		// the rank difference above pivot was set one too high, so rebalanceTree
+		// sees pivot as a node that was just promoted
+		rebalanceTree(pivot);
+		updateNodeBranchAfterRebalance(pivot.getParent());
+
+		WAVLNode root = pivot;
+		while (root.getParent() != null)
+			root = root.getParent();
+		return root;
 	}
 
 	/**
-	 * public int size()
-	 *
-	 * Returns the number of inner nodes in the tree.
-	 *
+	 * like joinNodes without a pivot, the maximal node of left is taken out and
+	 * used as the pivot
 	 */
-	public int size() {
-		return this._root.getSubtreeSize();
+
+	private WAVLNode joinNodes(WAVLNode left, WAVLNode right) {
+		if (!left.isInnerNode())
+			return right;
+		if (!right.isInnerNode())
+			return left;
+
+		WAVLNode[] parts = splitMax(left);
+		return joinNodes(parts[0], parts[1], right);
 	}
 
 	/**
-	 * public WAVLNode getRoot()
-	 *
-	 * Returns the root WAVL node, or null if the tree is empty
-	 *
+	 * splits a detached subtree by key, returns the roots of the keys smaller than
+	 * key, the node with the key (or null) and the roots of the keys larger than
+	 * key. the subtrees along the search path are joined back on the way up
 	 */
-	public WAVLNode getRoot() {
-		return this._root;
+
+	private WAVLNode[] splitNodes(WAVLNode node, int key) {
+		if (!node.isInnerNode())
+			return new WAVLNode[] { EXTERNAL_NODE, null, EXTERNAL_NODE };
+
+		WAVLNode left = detach(node.getLeftNode());
+		WAVLNode right = detach(node.getRightNode());
+
+		if (key == node.getKey())
+			return new WAVLNode[] { left, node, right };
+
+		WAVLNode[] parts;
+		if (key < node.getKey()) {
+			parts = splitNodes(left, key);
+			parts[2] = joinNodes(parts[2], node, right);
+		} else {
+			parts = splitNodes(right, key);
+			parts[0] = joinNodes(left, node, parts[0]);
+		}
+		return parts;
 	}
 
 	/**
-	 * public int select(int i)
-	 *
-	 * Returns the value of the i'th smallest key (return -1 if tree is empty)
-	 * Example 1: select(1) returns the value of the node with minimal key Example
-	 * 2: select(size()) returns the value of the node with maximal key Example 3:
-	 * select(2) returns the value 2nd smallest minimal node, i.e the value of the
-	 * node minimal node's successor
-	 *
+	 * splits the maximal node off a detached subtree, returns the root of the
+	 * remaining keys and the maximal node
 	 */
-	public String select(int i) {
-		i--;
 
-		if (empty() || this.size() < i + 1)
-			return null;
+	private WAVLNode[] splitMax(WAVLNode node) {
+		WAVLNode left = detach(node.getLeftNode());
+		WAVLNode right = detach(node.getRightNode());
+		if (!right.isInnerNode())
+			return new WAVLNode[] { left, node };
 
-		WAVLNode node = this._root;
+		WAVLNode[] parts = splitMax(right);
+		parts[0] = joinNodes(left, node, parts[0]);
+		return parts;
+	}
 
-		while (i >= 0) {
-			int leftSize = node.getLeftNode().getSubtreeSize();
-			if (i == leftSize)
-				return node.getValue();
-			if (i < leftSize)
-				node = node.getLeftNode();
-			else {
-				i = i - leftSize - 1;
-				node = node.getRightNode();
-			}
-		}
-		return null;
+	private WAVLNode unionNodes(WAVLNode a, WAVLNode b) {
+		if (!a.isInnerNode())
+			return b;
+		if (!b.isInnerNode())
+			return a;
+
+		WAVLNode left = detach(a.getLeftNode());
+		WAVLNode right = detach(a.getRightNode());
+		WAVLNode[] parts = splitNodes(b, a.getKey());
+		return joinNodes(unionNodes(left, parts[0]), a, unionNodes(right, parts[2]));
+	}
+
+	private WAVLNode intersectNodes(WAVLNode a, WAVLNode b) {
+		if (!a.isInnerNode() || !b.isInnerNode())
+			return EXTERNAL_NODE;
+
+		WAVLNode left = detach(a.getLeftNode());
+		WAVLNode right = detach(a.getRightNode());
+		WAVLNode[] parts = splitNodes(b, a.getKey());
+		WAVLNode smaller = intersectNodes(left, parts[0]);
+		WAVLNode larger = intersectNodes(right, parts[2]);
+		return parts[1] != null ? joinNodes(smaller, a, larger) : joinNodes(smaller, larger);
+	}
+
+	private WAVLNode differenceNodes(WAVLNode a, WAVLNode b) {
+		if (!a.isInnerNode() || !b.isInnerNode())
+			return a;
+
+		WAVLNode left = detach(b.getLeftNode());
+		WAVLNode right = detach(b.getRightNode());
+		WAVLNode[] parts = splitNodes(a, b.getKey());
+		return joinNodes(differenceNodes(parts[0], left), differenceNodes(parts[2], right));
+	}
+
+	/**
+	 * cuts a subtree from its parent and returns its root
+	 */
+
+	private static WAVLNode detach(WAVLNode node) {
+		if (node.isInnerNode())
+			node.setParent(null);
+		return node;
 	}
 
-	class WAVLNode {
+	static class WAVLNode {
 		private int _key;
 		private String _value;
 		private WAVLNode _left;
@@ -625,31 +2578,59 @@ public class WAVLTree {
 		private int _leftDiff;
 		private int _rightDiff;
 		private int _size;
+		private int _rank;
 
 		public WAVLNode(int key, String value, WAVLNode parent) {
 			this._key = key;
 			this._value = value;
-			this._left = new ExternaLWavlNode(this);
-			this._right = new ExternaLWavlNode(this);
+			this._left = EXTERNAL_NODE;
+			this._right = EXTERNAL_NODE;
 			this._parent = parent;
 			this._leftDiff = 1;
 			this._rightDiff = 1;
 			this._size = 1;
+			this._rank = 0;
 		}
 
-		public WAVLNode(WAVLNode parent) {
+		private WAVLNode() {
 			this._key = -1;
 			this._value = null;
-			this._parent = parent;
+			this._parent = null;
 			this._left = null;
 			this._right = null;
 			this._leftDiff = 1;
 			this._rightDiff = 1;
 			this._size = 0;
+			this._rank = -1;
 		}
 
+		/**
+		 * returns the rank of the node, it is stored in the node and kept up to date
+		 * by promotions, demotions and rotations
+		 */
+
 		public int getRank() {
-			return getLeftDiff() + getLeftNode().getRank();
+			return this._rank;
+		}
+
+		public void setRank(int rank) {
+			this._rank = rank;
+		}
+
+		/**
+		 * increases by 1 the rank of a node
+		 */
+
+		public void incRank() {
+			this._rank++;
+		}
+
+		/**
+		 * decreases by 1 the rank of a node
+		 */
+
+		public void decRank() {
+			this._rank--;
 		}
 
 		public int getKey() {
@@ -661,6 +2642,10 @@ public class WAVLTree {
 			return this._value;
 		}
 
+		void setValue(String value) {
+			this._value = value;
+		}
+
 		private WAVLNode getLeftNode() {
 			return this._left;
 		}
@@ -736,6 +2721,14 @@ public class WAVLTree {
 			this._size = size;
 		}
 
+		/**
+		 * decreases by 1 the size of the subtree in which node is the root
+		 */
+
+		public void decSize() {
+			this._size--;
+		}
+
 		/**
 		 * returns true if node has to children and false otherwise
 		 */
@@ -828,12 +2821,14 @@ public class WAVLTree {
 	}
 
 	/**
-	 * ExternaLWavlNode represent external WAVL nodes extends WAVLNode
+	 * ExternaLWavlNode represent external WAVL nodes extends WAVLNode. there is a
+	 * single immutable instance (EXTERNAL_NODE), so it has no parent and all of its
+	 * setters are unsupported
 	 */
 
-	class ExternaLWavlNode extends WAVLNode {
-		public ExternaLWavlNode(WAVLNode parent) {
-			super(parent);
+	static class ExternaLWavlNode extends WAVLNode {
+		private ExternaLWavlNode() {
+			super();
 		}
 
 		@Override
@@ -850,5 +2845,90 @@ public class WAVLTree {
 		public int getSubtreeSize() {
 			return 0;
 		}
+
+		@Override
+		public WAVLNode getParent() {
+			return null;
+		}
+
+		@Override
+		public void setLeft(WAVLNode node) {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
+
+		@Override
+		public void setRight(WAVLNode node) {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
+
+		@Override
+		public void setParent(WAVLNode parent) {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
+
+		@Override
+		public void setRightDiff(int rightDiff) {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
+
+		@Override
+		public void setLeftDiff(int leftDiff) {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
+
+		@Override
+		public void setSize(int size) {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
+
+		@Override
+		public void decSize() {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
+
+		@Override
+		public void decLeftDiff() {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
+
+		@Override
+		public void decRightDiff() {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
+
+		@Override
+		public void incLeftDiff() {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
+
+		@Override
+		public void incRightDiff() {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
+
+		@Override
+		public void setRank(int rank) {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
+
+		@Override
+		public void incRank() {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
+
+		@Override
+		public void decRank() {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
+
+		@Override
+		void setValue(String value) {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
+
+		@Override
+		public void updateKeyAndValue(WAVLNode node) {
+			throw new UnsupportedOperationException("external node is immutable");
+		}
 	}
 }
@@ -0,0 +1,764 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+
+/**
+ *
+ * WAVLTreeMap
+ *
+ * A NavigableMap backed by a WAVLTree, a drop-in replacement for
+ * TreeMap<Integer, String>. Keys are ordered naturally and must not be null,
+ * values may be null.
+ *
+ * The same class implements the full map, its sub maps and its descending
+ * views. A view stores its key bounds in ascending order and whether it is
+ * descending, and all views of a map share one tree, so changes through any
+ * of them are seen by all. The first and last items of the full map are the
+ * cached minimal and maximal nodes of the tree, the size of a sub map is
+ * computed from ranks in O(log n).
+ *
+ */
+
+public class WAVLTreeMap extends AbstractMap<Integer, String> implements NavigableMap<Integer, String> {
+	private final WAVLTree _tree;
+
+	private final boolean _fromStart;
+	private final int _low;
+	private final boolean _lowInclusive;
+	private final boolean _toEnd;
+	private final int _high;
+	private final boolean _highInclusive;
+	private final boolean _descending;
+
+	private EntrySet _entrySet;
+	private KeySet _keySet;
+
+	public WAVLTreeMap() {
+		this(new WAVLTree());
+	}
+
+	/**
+	 * creates a map with the items of map
+	 */
+
+	public WAVLTreeMap(Map<? extends Integer, ? extends String> map) {
+		this(new WAVLTree());
+		putAll(map);
+	}
+
+	/**
+	 * creates a map backed by tree, changes to either are seen by both
+	 */
+
+	public WAVLTreeMap(WAVLTree tree) {
+		this(Objects.requireNonNull(tree, "tree"), true, 0, true, true, 0, true, false);
+	}
+
+	private WAVLTreeMap(WAVLTree tree, boolean fromStart, int low, boolean lowInclusive, boolean toEnd, int high,
+			boolean highInclusive, boolean descending) {
+		if (!fromStart && !toEnd && low > high)
+			throw new IllegalArgumentException("fromKey > toKey");
+
+		this._tree = tree;
+		this._fromStart = fromStart;
+		this._low = low;
+		this._lowInclusive = lowInclusive;
+		this._toEnd = toEnd;
+		this._high = high;
+		this._highInclusive = highInclusive;
+		this._descending = descending;
+	}
+
+	/**
+	 * keys are Integers, anything else fails like in TreeMap
+	 */
+
+	private static int keyOf(Object key) {
+		return (Integer) key;
+	}
+
+	private static int key(WAVLTree.WAVLNode node) {
+		if (node == null)
+			throw new NoSuchElementException();
+		return node.getKey();
+	}
+
+	private static Integer keyOrNull(WAVLTree.WAVLNode node) {
+		return node == null ? null : node.getKey();
+	}
+
+	private static Map.Entry<Integer, String> exportEntry(WAVLTree.WAVLNode node) {
+		return node == null ? null : new AbstractMap.SimpleImmutableEntry<>(node.getKey(), node.getValue());
+	}
+
+	private boolean tooLow(int key) {
+		return !this._fromStart && (key < this._low || (key == this._low && !this._lowInclusive));
+	}
+
+	private boolean tooHigh(int key) {
+		return !this._toEnd && (key > this._high || (key == this._high && !this._highInclusive));
+	}
+
+	private boolean inRange(int key) {
+		return !tooLow(key) && !tooHigh(key);
+	}
+
+	/**
+	 * checks the bound of a new view, which may exclude a key this view excludes
+	 */
+
+	private boolean inRange(int key, boolean inclusive) {
+		if (inclusive)
+			return inRange(key);
+		return (this._fromStart || key >= this._low) && (this._toEnd || key <= this._high);
+	}
+
+	/**
+	 * returns the node with key k if it is in the tree and in this view, or null
+	 */
+
+	private WAVLTree.WAVLNode getNode(int k) {
+		return inRange(k) ? this._tree.findNode(k) : null;
+	}
+
+	/*
+	 * navigation in ascending key order, within the bounds of this view
+	 */
+
+	private WAVLTree.WAVLNode absLowest() {
+		WAVLTree.WAVLNode node = this._fromStart ? this._tree.firstNode()
+				: this._lowInclusive ? this._tree.ceilingNode(this._low) : this._tree.higherNode(this._low);
+		return node == null || tooHigh(node.getKey()) ? null : node;
+	}
+
+	private WAVLTree.WAVLNode absHighest() {
+		WAVLTree.WAVLNode node = this._toEnd ? this._tree.lastNode()
+				: this._highInclusive ? this._tree.floorNode(this._high) : this._tree.lowerNode(this._high);
+		return node == null || tooLow(node.getKey()) ? null : node;
+	}
+
+	private WAVLTree.WAVLNode absCeiling(int key) {
+		if (tooLow(key))
+			return absLowest();
+		WAVLTree.WAVLNode node = this._tree.ceilingNode(key);
+		return node == null || tooHigh(node.getKey()) ? null : node;
+	}
+
+	private WAVLTree.WAVLNode absHigher(int key) {
+		if (tooLow(key))
+			return absLowest();
+		WAVLTree.WAVLNode node = this._tree.higherNode(key);
+		return node == null || tooHigh(node.getKey()) ? null : node;
+	}
+
+	private WAVLTree.WAVLNode absFloor(int key) {
+		if (tooHigh(key))
+			return absHighest();
+		WAVLTree.WAVLNode node = this._tree.floorNode(key);
+		return node == null || tooLow(node.getKey()) ? null : node;
+	}
+
+	private WAVLTree.WAVLNode absLower(int key) {
+		if (tooHigh(key))
+			return absHighest();
+		WAVLTree.WAVLNode node = this._tree.lowerNode(key);
+		return node == null || tooLow(node.getKey()) ? null : node;
+	}
+
+	/*
+	 * navigation in the order of this view
+	 */
+
+	private WAVLTree.WAVLNode firstNode() {
+		return this._descending ? absHighest() : absLowest();
+	}
+
+	private WAVLTree.WAVLNode lastNode() {
+		return this._descending ? absLowest() : absHighest();
+	}
+
+	private WAVLTree.WAVLNode ceilingNode(int key) {
+		return this._descending ? absFloor(key) : absCeiling(key);
+	}
+
+	private WAVLTree.WAVLNode higherNode(int key) {
+		return this._descending ? absLower(key) : absHigher(key);
+	}
+
+	private WAVLTree.WAVLNode floorNode(int key) {
+		return this._descending ? absCeiling(key) : absFloor(key);
+	}
+
+	private WAVLTree.WAVLNode lowerNode(int key) {
+		return this._descending ? absHigher(key) : absLower(key);
+	}
+
+	private WAVLTree.WAVLNode nextNode(WAVLTree.WAVLNode node) {
+		if (this._descending) {
+			WAVLTree.WAVLNode previous = WAVLTree.predecessor(node);
+			return previous == null || tooLow(previous.getKey()) ? null : previous;
+		}
+		WAVLTree.WAVLNode next = WAVLTree.successor(node);
+		return next == null || tooHigh(next.getKey()) ? null : next;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of items in this map, O(1) for a full map and O(log n)
+	 * for a sub map
+	 */
+	@Override
+	public int size() {
+		if (this._fromStart && this._toEnd)
+			return this._tree.size();
+
+		int from = 0;
+		if (!this._fromStart)
+			from = this._tree.rank(this._low)
+					+ (!this._lowInclusive && this._tree.findNode(this._low) != null ? 1 : 0);
+		int to = this._tree.size();
+		if (!this._toEnd)
+			to = this._tree.rank(this._high)
+					+ (this._highInclusive && this._tree.findNode(this._high) != null ? 1 : 0);
+		return Math.max(0, to - from);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return absLowest() == null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return getNode(keyOf(key)) != null;
+	}
+
+	@Override
+	public String get(Object key) {
+		WAVLTree.WAVLNode node = getNode(keyOf(key));
+		return node == null ? null : node.getValue();
+	}
+
+	/**
+	 * replaces the info of an existing key in place, otherwise inserts the key.
+	 * throws IllegalArgumentException for a key outside of this view
+	 */
+	@Override
+	public String put(Integer key, String value) {
+		int k = key;
+		if (!inRange(k))
+			throw new IllegalArgumentException("key out of range");
+
+		WAVLTree.WAVLNode node = this._tree.findNode(k);
+		if (node != null) {
+			String old = node.getValue();
+			this._tree.setNodeValue(node, value);
+			return old;
+		}
+		this._tree.insert(k, value);
+		return null;
+	}
+
+	@Override
+	public String remove(Object key) {
+		WAVLTree.WAVLNode node = getNode(keyOf(key));
+		if (node == null)
+			return null;
+
+		String old = node.getValue();
+		this._tree.removeNode(node);
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		if (this._fromStart && this._toEnd) {
+			this._tree.clear();
+			return;
+		}
+
+		for (Iterator<Integer> keys = keyIterator(); keys.hasNext();) {
+			keys.next();
+			keys.remove();
+		}
+	}
+
+	@Override
+	public Comparator<? super Integer> comparator() {
+		return this._descending ? Collections.reverseOrder() : null;
+	}
+
+	@Override
+	public Integer firstKey() {
+		return key(firstNode());
+	}
+
+	@Override
+	public Integer lastKey() {
+		return key(lastNode());
+	}
+
+	@Override
+	public Map.Entry<Integer, String> firstEntry() {
+		return exportEntry(firstNode());
+	}
+
+	@Override
+	public Map.Entry<Integer, String> lastEntry() {
+		return exportEntry(lastNode());
+	}
+
+	@Override
+	public Map.Entry<Integer, String> pollFirstEntry() {
+		return poll(firstNode());
+	}
+
+	@Override
+	public Map.Entry<Integer, String> pollLastEntry() {
+		return poll(lastNode());
+	}
+
+	private Map.Entry<Integer, String> poll(WAVLTree.WAVLNode node) {
+		Map.Entry<Integer, String> entry = exportEntry(node);
+		if (node != null)
+			this._tree.removeNode(node);
+		return entry;
+	}
+
+	@Override
+	public Map.Entry<Integer, String> lowerEntry(Integer key) {
+		return exportEntry(lowerNode(key));
+	}
+
+	@Override
+	public Integer lowerKey(Integer key) {
+		return keyOrNull(lowerNode(key));
+	}
+
+	@Override
+	public Map.Entry<Integer, String> floorEntry(Integer key) {
+		return exportEntry(floorNode(key));
+	}
+
+	@Override
+	public Integer floorKey(Integer key) {
+		return keyOrNull(floorNode(key));
+	}
+
+	@Override
+	public Map.Entry<Integer, String> ceilingEntry(Integer key) {
+		return exportEntry(ceilingNode(key));
+	}
+
+	@Override
+	public Integer ceilingKey(Integer key) {
+		return keyOrNull(ceilingNode(key));
+	}
+
+	@Override
+	public Map.Entry<Integer, String> higherEntry(Integer key) {
+		return exportEntry(higherNode(key));
+	}
+
+	@Override
+	public Integer higherKey(Integer key) {
+		return keyOrNull(higherNode(key));
+	}
+
+	@Override
+	public WAVLTreeMap descendingMap() {
+		return new WAVLTreeMap(this._tree, this._fromStart, this._low, this._lowInclusive, this._toEnd, this._high,
+				this._highInclusive, !this._descending);
+	}
+
+	@Override
+	public WAVLTreeMap subMap(Integer fromKey, boolean fromInclusive, Integer toKey, boolean toInclusive) {
+		if (this._descending)
+			return view(false, toKey, toInclusive, false, fromKey, fromInclusive);
+		return view(false, fromKey, fromInclusive, false, toKey, toInclusive);
+	}
+
+	@Override
+	public WAVLTreeMap headMap(Integer toKey, boolean inclusive) {
+		if (this._descending)
+			return view(false, toKey, inclusive, true, 0, false);
+		return view(true, 0, false, false, toKey, inclusive);
+	}
+
+	@Override
+	public WAVLTreeMap tailMap(Integer fromKey, boolean inclusive) {
+		if (this._descending)
+			return view(true, 0, false, false, fromKey, inclusive);
+		return view(false, fromKey, inclusive, true, 0, false);
+	}
+
+	@Override
+	public WAVLTreeMap subMap(Integer fromKey, Integer toKey) {
+		return subMap(fromKey, true, toKey, false);
+	}
+
+	@Override
+	public WAVLTreeMap headMap(Integer toKey) {
+		return headMap(toKey, false);
+	}
+
+	@Override
+	public WAVLTreeMap tailMap(Integer fromKey) {
+		return tailMap(fromKey, true);
+	}
+
+	/**
+	 * creates a view with the given ascending bounds, a missing bound is taken
+	 * from this view
+	 */
+
+	private WAVLTreeMap view(boolean fromStart, int low, boolean lowInclusive, boolean toEnd, int high,
+			boolean highInclusive) {
+		if (fromStart) {
+			fromStart = this._fromStart;
+			low = this._low;
+			lowInclusive = this._lowInclusive;
+		} else if (!inRange(low, lowInclusive)) {
+			throw new IllegalArgumentException("fromKey out of range");
+		}
+
+		if (toEnd) {
+			toEnd = this._toEnd;
+			high = this._high;
+			highInclusive = this._highInclusive;
+		} else if (!inRange(high, highInclusive)) {
+			throw new IllegalArgumentException("toKey out of range");
+		}
+
+		return new WAVLTreeMap(this._tree, fromStart, low, lowInclusive, toEnd, high, highInclusive,
+				this._descending);
+	}
+
+	@Override
+	public Set<Integer> keySet() {
+		return navigableKeySet();
+	}
+
+	@Override
+	public NavigableSet<Integer> navigableKeySet() {
+		KeySet keySet = this._keySet;
+		return keySet != null ? keySet : (this._keySet = new KeySet(this));
+	}
+
+	@Override
+	public NavigableSet<Integer> descendingKeySet() {
+		return descendingMap().navigableKeySet();
+	}
+
+	@Override
+	public Set<Map.Entry<Integer, String>> entrySet() {
+		EntrySet entrySet = this._entrySet;
+		return entrySet != null ? entrySet : (this._entrySet = new EntrySet());
+	}
+
+	private Iterator<Integer> keyIterator() {
+		return new NodeIterator<Integer>() {
+			@Override
+			public Integer next() {
+				return nextNode().getKey();
+			}
+		};
+	}
+
+	/**
+	 * walks the nodes of this view in its order. removing a binary node moves the
+	 * item of its successor into it, so an ascending walk continues at the same
+	 * node
+	 */
+
+	private abstract class NodeIterator<T> implements Iterator<T> {
+		private WAVLTree.WAVLNode _next;
+		private WAVLTree.WAVLNode _lastReturned;
+		private int _expectedModCount;
+
+		NodeIterator() {
+			this._next = firstNode();
+			this._expectedModCount = WAVLTreeMap.this._tree.modCount();
+		}
+
+		@Override
+		public final boolean hasNext() {
+			return this._next != null;
+		}
+
+		final WAVLTree.WAVLNode nextNode() {
+			WAVLTree.WAVLNode node = this._next;
+			if (node == null)
+				throw new NoSuchElementException();
+			if (WAVLTreeMap.this._tree.modCount() != this._expectedModCount)
+				throw new ConcurrentModificationException();
+
+			this._next = WAVLTreeMap.this.nextNode(node);
+			this._lastReturned = node;
+			return node;
+		}
+
+		@Override
+		public final void remove() {
+			if (this._lastReturned == null)
+				throw new IllegalStateException();
+			if (WAVLTreeMap.this._tree.modCount() != this._expectedModCount)
+				throw new ConcurrentModificationException();
+
+			if (!WAVLTreeMap.this._descending && this._next != null && this._lastReturned.isBinary())
+				this._next = this._lastReturned;
+			WAVLTreeMap.this._tree.removeNode(this._lastReturned);
+			this._expectedModCount = WAVLTreeMap.this._tree.modCount();
+			this._lastReturned = null;
+		}
+	}
+
+	/**
+	 * an item of the map, setValue writes through to the tree
+	 */
+
+	private static final class NodeEntry implements Map.Entry<Integer, String> {
+		private final WAVLTree _tree;
+		private final WAVLTree.WAVLNode _node;
+
+		NodeEntry(WAVLTree tree, WAVLTree.WAVLNode node) {
+			this._tree = tree;
+			this._node = node;
+		}
+
+		@Override
+		public Integer getKey() {
+			return this._node.getKey();
+		}
+
+		@Override
+		public String getValue() {
+			return this._node.getValue();
+		}
+
+		@Override
+		public String setValue(String value) {
+			String old = this._node.getValue();
+			this._tree.setNodeValue(this._node, value);
+			return old;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			return getKey().equals(entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return Integer.hashCode(this._node.getKey()) ^ Objects.hashCode(getValue());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+	private final class EntrySet extends AbstractSet<Map.Entry<Integer, String>> {
+		@Override
+		public Iterator<Map.Entry<Integer, String>> iterator() {
+			return new NodeIterator<Map.Entry<Integer, String>>() {
+				@Override
+				public Map.Entry<Integer, String> next() {
+					return new NodeEntry(WAVLTreeMap.this._tree, nextNode());
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return WAVLTreeMap.this.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return WAVLTreeMap.this.isEmpty();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return matchingNode(o) != null;
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			WAVLTree.WAVLNode node = matchingNode(o);
+			if (node == null)
+				return false;
+			WAVLTreeMap.this._tree.removeNode(node);
+			return true;
+		}
+
+		/**
+		 * returns the node with the key and value of entry o, or null
+		 */
+
+		private WAVLTree.WAVLNode matchingNode(Object o) {
+			if (!(o instanceof Map.Entry))
+				return null;
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			if (!(entry.getKey() instanceof Integer))
+				return null;
+			WAVLTree.WAVLNode node = getNode((Integer) entry.getKey());
+			return node != null && Objects.equals(node.getValue(), entry.getValue()) ? node : null;
+		}
+
+		@Override
+		public void clear() {
+			WAVLTreeMap.this.clear();
+		}
+	}
+
+	/**
+	 * the keys of a map, as a NavigableSet backed by the map
+	 */
+
+	private static final class KeySet extends AbstractSet<Integer> implements NavigableSet<Integer> {
+		private final WAVLTreeMap _map;
+
+		KeySet(WAVLTreeMap map) {
+			this._map = map;
+		}
+
+		@Override
+		public Iterator<Integer> iterator() {
+			return this._map.keyIterator();
+		}
+
+		@Override
+		public Iterator<Integer> descendingIterator() {
+			return this._map.descendingMap().keyIterator();
+		}
+
+		@Override
+		public int size() {
+			return this._map.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return this._map.isEmpty();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return this._map.containsKey(o);
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			WAVLTree.WAVLNode node = this._map.getNode(keyOf(o));
+			if (node == null)
+				return false;
+			this._map._tree.removeNode(node);
+			return true;
+		}
+
+		@Override
+		public void clear() {
+			this._map.clear();
+		}
+
+		@Override
+		public Comparator<? super Integer> comparator() {
+			return this._map.comparator();
+		}
+
+		@Override
+		public Integer first() {
+			return this._map.firstKey();
+		}
+
+		@Override
+		public Integer last() {
+			return this._map.lastKey();
+		}
+
+		@Override
+		public Integer lower(Integer e) {
+			return this._map.lowerKey(e);
+		}
+
+		@Override
+		public Integer floor(Integer e) {
+			return this._map.floorKey(e);
+		}
+
+		@Override
+		public Integer ceiling(Integer e) {
+			return this._map.ceilingKey(e);
+		}
+
+		@Override
+		public Integer higher(Integer e) {
+			return this._map.higherKey(e);
+		}
+
+		@Override
+		public Integer pollFirst() {
+			Map.Entry<Integer, String> entry = this._map.pollFirstEntry();
+			return entry == null ? null : entry.getKey();
+		}
+
+		@Override
+		public Integer pollLast() {
+			Map.Entry<Integer, String> entry = this._map.pollLastEntry();
+			return entry == null ? null : entry.getKey();
+		}
+
+		@Override
+		public NavigableSet<Integer> descendingSet() {
+			return this._map.descendingMap().navigableKeySet();
+		}
+
+		@Override
+		public NavigableSet<Integer> subSet(Integer fromElement, boolean fromInclusive, Integer toElement,
+				boolean toInclusive) {
+			return this._map.subMap(fromElement, fromInclusive, toElement, toInclusive).navigableKeySet();
+		}
+
+		@Override
+		public NavigableSet<Integer> headSet(Integer toElement, boolean inclusive) {
+			return this._map.headMap(toElement, inclusive).navigableKeySet();
+		}
+
+		@Override
+		public NavigableSet<Integer> tailSet(Integer fromElement, boolean inclusive) {
+			return this._map.tailMap(fromElement, inclusive).navigableKeySet();
+		}
+
+		@Override
+		public SortedSet<Integer> subSet(Integer fromElement, Integer toElement) {
+			return subSet(fromElement, true, toElement, false);
+		}
+
+		@Override
+		public SortedSet<Integer> headSet(Integer toElement) {
+			return headSet(toElement, false);
+		}
+
+		@Override
+		public SortedSet<Integer> tailSet(Integer fromElement) {
+			return tailSet(fromElement, true);
+		}
+	}
+}
@@ -0,0 +1,288 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * WAVLTreeStats
+ *
+ * Counters for the work a WAVLTree does: how often each rebalancing case ran,
+ * how deep searches went, and how long inserts and deletes took. A tree only
+ * records into a WAVLTreeStats once it is attached with setStats, a tree
+ * without one pays a single null check per operation. The counters are
+ * LongAdders, so one WAVLTreeStats can be shared by several trees and read
+ * while they are being changed.
+ *
+ */
+
+public class WAVLTreeStats {
+	private final LongAdder _inserts = new LongAdder();
+	private final LongAdder _deletes = new LongAdder();
+	private final LongAdder _promotions = new LongAdder();
+	private final LongAdder _demotions = new LongAdder();
+	private final LongAdder _doubleDemotions = new LongAdder();
+	private final LongAdder _singleRotations = new LongAdder();
+	private final LongAdder _doubleRotations = new LongAdder();
+	private final LongAdder _descents = new LongAdder();
+	private final LongAdder _descentDepth = new LongAdder();
+	private final LongAccumulator _maxDescentDepth = new LongAccumulator(Math::max, 0);
+	private final LongAccumulator _maxInsertSteps = new LongAccumulator(Math::max, 0);
+	private final LongAccumulator _maxDeleteSteps = new LongAccumulator(Math::max, 0);
+	private final LatencyHistogram _insertLatency = new LatencyHistogram();
+	private final LatencyHistogram _deleteLatency = new LatencyHistogram();
+
+	void recordInsert(int steps, long nanos) {
+		this._inserts.increment();
+		this._maxInsertSteps.accumulate(steps);
+		this._insertLatency.record(nanos);
+	}
+
+	void recordDelete(int steps, long nanos) {
+		this._deletes.increment();
+		this._maxDeleteSteps.accumulate(steps);
+		this._deleteLatency.record(nanos);
+	}
+
+	void recordPromotion() {
+		this._promotions.increment();
+	}
+
+	void recordDemotion() {
+		this._demotions.increment();
+	}
+
+	void recordDoubleDemotion() {
+		this._doubleDemotions.increment();
+	}
+
+	void recordSingleRotation() {
+		this._singleRotations.increment();
+	}
+
+	void recordDoubleRotation() {
+		this._doubleRotations.increment();
+	}
+
+	/**
+	 * records a search that went through depth inner nodes
+	 */
+
+	void recordDescent(int depth) {
+		this._descents.increment();
+		this._descentDepth.add(depth);
+		this._maxDescentDepth.accumulate(depth);
+	}
+
+	/**
+	 * public long getInserts()
+	 *
+	 * returns the number of insert calls, including those of keys already in the
+	 * tree
+	 */
+	public long getInserts() {
+		return this._inserts.sum();
+	}
+
+	/**
+	 * public long getDeletes()
+	 *
+	 * returns the number of delete calls, including those of keys not in the tree
+	 */
+	public long getDeletes() {
+		return this._deletes.sum();
+	}
+
+	public long getPromotions() {
+		return this._promotions.sum();
+	}
+
+	/**
+	 * public long getDemotions()
+	 *
+	 * returns the number of single demotions, including the one that can follow a
+	 * single rotation after a deletion
+	 */
+	public long getDemotions() {
+		return this._demotions.sum();
+	}
+
+	/**
+	 * public long getDoubleDemotions()
+	 *
+	 * returns the number of double demotions, each demotes a node and one of its
+	 * children
+	 */
+	public long getDoubleDemotions() {
+		return this._doubleDemotions.sum();
+	}
+
+	/**
+	 * public long getSingleRotations()
+	 *
+	 * returns the number of single rotations, after insertions and deletions
+	 */
+	public long getSingleRotations() {
+		return this._singleRotations.sum();
+	}
+
+	/**
+	 * public long getDoubleRotations()
+	 *
+	 * returns the number of double rotations, after insertions and deletions
+	 */
+	public long getDoubleRotations() {
+		return this._doubleRotations.sum();
+	}
+
+	/**
+	 * public double getAverageDescentDepth()
+	 *
+	 * returns the average number of inner nodes a search of insert or delete went
+	 * through, or 0 if there was none
+	 */
+	public double getAverageDescentDepth() {
+		long descents = this._descents.sum();
+		return descents == 0 ? 0 : (double) this._descentDepth.sum() / descents;
+	}
+
+	public long getMaxDescentDepth() {
+		return this._maxDescentDepth.get();
+	}
+
+	/**
+	 * public long getMaxInsertSteps()
+	 *
+	 * returns the largest number of rebalancing steps a single insert returned
+	 */
+	public long getMaxInsertSteps() {
+		return this._maxInsertSteps.get();
+	}
+
+	/**
+	 * public long getMaxDeleteSteps()
+	 *
+	 * returns the largest number of rebalancing steps a single delete returned, a
+	 * long demotion cascade shows up here
+	 */
+	public long getMaxDeleteSteps() {
+		return this._maxDeleteSteps.get();
+	}
+
+	public LatencyHistogram getInsertLatency() {
+		return this._insertLatency;
+	}
+
+	public LatencyHistogram getDeleteLatency() {
+		return this._deleteLatency;
+	}
+
+	/**
+	 * public void reset()
+	 *
+	 * sets all counters back to 0. counts recorded while reset runs may be lost
+	 */
+	public void reset() {
+		this._inserts.reset();
+		this._deletes.reset();
+		this._promotions.reset();
+		this._demotions.reset();
+		this._doubleDemotions.reset();
+		this._singleRotations.reset();
+		this._doubleRotations.reset();
+		this._descents.reset();
+		this._descentDepth.reset();
+		this._maxDescentDepth.reset();
+		this._maxInsertSteps.reset();
+		this._maxDeleteSteps.reset();
+		this._insertLatency.reset();
+		this._deleteLatency.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "inserts=" + getInserts() + " deletes=" + getDeletes() + " promotions=" + getPromotions()
+				+ " demotions=" + getDemotions() + " doubleDemotions=" + getDoubleDemotions() + " singleRotations="
+				+ getSingleRotations() + " doubleRotations=" + getDoubleRotations() + " averageDescentDepth="
+				+ String.format("%.2f", getAverageDescentDepth()) + " maxDescentDepth=" + getMaxDescentDepth()
+				+ " maxInsertSteps=" + getMaxInsertSteps() + " maxDeleteSteps=" + getMaxDeleteSteps()
+				+ " insertLatency=" + this._insertLatency + " deleteLatency=" + this._deleteLatency;
+	}
+
+	/**
+	 *
+	 * LatencyHistogram
+	 *
+	 * Counts durations in buckets of powers of two nanoseconds: bucket b holds
+	 * the durations d with 2^(b-1) <= d < 2^b, bucket 0 the durations of 0. The
+	 * percentiles are the upper bounds of their bucket, so they are at most
+	 * twice the real value.
+	 *
+	 */
+	public static class LatencyHistogram {
+		public static final int BUCKETS = 64;
+
+		private final LongAdder[] _buckets;
+
+		LatencyHistogram() {
+			this._buckets = new LongAdder[BUCKETS];
+			for (int b = 0; b < BUCKETS; b++)
+				this._buckets[b] = new LongAdder();
+		}
+
+		void record(long nanos) {
+			this._buckets[BUCKETS - Long.numberOfLeadingZeros(Math.max(nanos, 0))].increment();
+		}
+
+		void reset() {
+			for (LongAdder bucket : this._buckets)
+				bucket.reset();
+		}
+
+		/**
+		 * public long getCount(int bucket)
+		 *
+		 * returns the number of durations d with 2^(bucket-1) <= d < 2^bucket
+		 */
+		public long getCount(int bucket) {
+			return this._buckets[bucket].sum();
+		}
+
+		public long getCount() {
+			long count = 0;
+			for (LongAdder bucket : this._buckets)
+				count += bucket.sum();
+			return count;
+		}
+
+		/**
+		 * public long getPercentile(double p)
+		 *
+		 * returns an upper bound in nanoseconds of the durations below the p'th
+		 * percentile, 0 <= p <= 100. returns 0 if nothing was recorded
+		 */
+		public long getPercentile(double p) {
+			if (p < 0 || p > 100)
+				throw new IllegalArgumentException("percentile " + p);
+
+			long[] counts = new long[BUCKETS];
+			long count = 0;
+			for (int b = 0; b < BUCKETS; b++)
+				count += counts[b] = this._buckets[b].sum();
+			if (count == 0)
+				return 0;
+
+			long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+			for (int b = 0; b < BUCKETS; b++) {
+				rank -= counts[b];
+				if (rank <= 0)
+					return b == 0 ? 0 : b == BUCKETS - 1 ? Long.MAX_VALUE : (1L << b) - 1;
+			}
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public String toString() {
+			return "[count=" + getCount() + " p50<=" + getPercentile(50) + "ns p99<=" + getPercentile(99)
+					+ "ns p99.9<=" + getPercentile(99.9) + "ns max<=" + getPercentile(100) + "ns]";
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package wavl.bench;
+
+/**
+ *
+ * AVLTree
+ *
+ * A plain AVL tree with int keys and String values, the baseline the WAVL
+ * trees are compared against. Nodes store their height and subtree size, so
+ * select is O(log n) like in WAVLTree. Insert and delete are recursive and
+ * rebalance on the way back up.
+ *
+ */
+
+public class AVLTree {
+	private Node _root;
+
+	/**
+	 * public boolean insert(int k, String v)
+	 *
+	 * inserts an item with key k, returns false if k is already in the tree
+	 */
+	public boolean insert(int k, String v) {
+		int size = size();
+		this._root = insert(this._root, k, v);
+		return size() != size;
+	}
+
+	private static Node insert(Node node, int k, String v) {
+		if (node == null)
+			return new Node(k, v);
+
+		if (k < node._key)
+			node._left = insert(node._left, k, v);
+		else if (k > node._key)
+			node._right = insert(node._right, k, v);
+		else
+			return node;
+		return balance(node);
+	}
+
+	/**
+	 * public boolean delete(int k)
+	 *
+	 * deletes the item with key k, returns false if k is not in the tree
+	 */
+	public boolean delete(int k) {
+		int size = size();
+		this._root = delete(this._root, k);
+		return size() != size;
+	}
+
+	private static Node delete(Node node, int k) {
+		if (node == null)
+			return null;
+
+		if (k < node._key) {
+			node._left = delete(node._left, k);
+		} else if (k > node._key) {
+			node._right = delete(node._right, k);
+		} else {
+			if (node._left == null)
+				return node._right;
+			if (node._right == null)
+				return node._left;
+
+			Node successor = node._right;
+			while (successor._left != null)
+				successor = successor._left;
+			node._key = successor._key;
+			node._value = successor._value;
+			node._right = deleteMin(node._right);
+		}
+		return balance(node);
+	}
+
+	private static Node deleteMin(Node node) {
+		if (node._left == null)
+			return node._right;
+		node._left = deleteMin(node._left);
+		return balance(node);
+	}
+
+	/**
+	 * restores the AVL condition at node after one of its subtrees changed
+	 * height by one, returns the new root of the subtree
+	 */
+
+	private static Node balance(Node node) {
+		int balance = height(node._left) - height(node._right);
+		if (balance > 1) {
+			if (height(node._left._left) < height(node._left._right))
+				node._left = rotateLeft(node._left);
+			return rotateRight(node);
+		}
+		if (balance < -1) {
+			if (height(node._right._right) < height(node._right._left))
+				node._right = rotateRight(node._right);
+			return rotateLeft(node);
+		}
+		update(node);
+		return node;
+	}
+
+	private static Node rotateRight(Node node) {
+		Node left = node._left;
+		node._left = left._right;
+		left._right = node;
+		update(node);
+		update(left);
+		return left;
+	}
+
+	private static Node rotateLeft(Node node) {
+		Node right = node._right;
+		node._right = right._left;
+		right._left = node;
+		update(node);
+		update(right);
+		return right;
+	}
+
+	private static void update(Node node) {
+		node._height = Math.max(height(node._left), height(node._right)) + 1;
+		node._size = size(node._left) + size(node._right) + 1;
+	}
+
+	private static int height(Node node) {
+		return node == null ? 0 : node._height;
+	}
+
+	private static int size(Node node) {
+		return node == null ? 0 : node._size;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the value of key k, or null if k is not in the tree
+	 */
+	public String search(int k) {
+		Node node = this._root;
+		while (node != null) {
+			if (k == node._key)
+				return node._value;
+			node = k < node._key ? node._left : node._right;
+		}
+		return null;
+	}
+
+	/**
+	 * public String select(int i)
+	 *
+	 * returns the value of the i'th smallest key, or null if i is out of range
+	 */
+	public String select(int i) {
+		i--;
+		if (i < 0 || i >= size())
+			return null;
+
+		Node node = this._root;
+		while (true) {
+			int leftSize = size(node._left);
+			if (i == leftSize)
+				return node._value;
+			if (i < leftSize) {
+				node = node._left;
+			} else {
+				i -= leftSize + 1;
+				node = node._right;
+			}
+		}
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * returns the keys in increasing order
+	 */
+	public int[] keysToArray() {
+		int[] keys = new int[size()];
+		fill(this._root, keys, 0);
+		return keys;
+	}
+
+	private static int fill(Node node, int[] keys, int index) {
+		while (node != null) {
+			index = fill(node._left, keys, index);
+			keys[index++] = node._key;
+			node = node._right;
+		}
+		return index;
+	}
+
+	public int size() {
+		return size(this._root);
+	}
+
+	private static final class Node {
+		private int _key;
+		private String _value;
+		private Node _left;
+		private Node _right;
+		private int _height;
+		private int _size;
+
+		Node(int key, String value) {
+			this._key = key;
+			this._value = value;
+			this._height = 1;
+			this._size = 1;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package wavl.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * DeleteBenchmark
+ *
+ * Deletes all keys of the workload from a full map, in the order they were
+ * inserted. The score is the time for the whole batch, divide it by size for
+ * the time per key.
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DeleteBenchmark {
+	@Param({ "WAVL", "ARRAY_WAVL", "AVL", "TREE_MAP", "SKIP_LIST" })
+	public OrderedIntMap.Implementation implementation;
+
+	private OrderedIntMap _map;
+
+	@Setup(Level.Invocation)
+	public void setup(Workload workload) {
+		this._map = workload.filled(this.implementation);
+	}
+
+	@Benchmark
+	public OrderedIntMap delete(Workload workload) {
+		for (int key : workload.keys)
+			this._map.delete(key);
+		return this._map;
+	}
+}
@@ -0,0 +1,50 @@
+package wavl.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * InsertBenchmark
+ *
+ * Inserts all keys of the workload into an empty map. The score is the time
+ * for the whole batch, divide it by size for the time per key.
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class InsertBenchmark {
+	@Param({ "WAVL", "ARRAY_WAVL", "AVL", "TREE_MAP", "SKIP_LIST" })
+	public OrderedIntMap.Implementation implementation;
+
+	private OrderedIntMap _map;
+
+	@Setup(Level.Invocation)
+	public void setup() {
+		this._map = this.implementation.create();
+	}
+
+	@Benchmark
+	public OrderedIntMap insert(Workload workload) {
+		for (int key : workload.keys)
+			this._map.insert(key, Workload.VALUE);
+		return this._map;
+	}
+}
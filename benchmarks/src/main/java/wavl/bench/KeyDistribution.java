@@ -0,0 +1,141 @@
+package wavl.bench;
+
+import java.util.Random;
+
+/**
+ *
+ * KeyDistribution
+ *
+ * How the benchmarks choose keys. A tree of size n holds the even keys 0, 2,
+ * ..., 2(n-1), so an odd key is never in it. insertOrder decides in which
+ * order they are inserted, accesses which of them are looked up or updated.
+ *
+ */
+
+public enum KeyDistribution {
+	/**
+	 * increasing keys, the worst case for the rebalancing of an unbalanced tree
+	 */
+	SEQUENTIAL {
+		@Override
+		int[] insertOrder(int n, Random random) {
+			int[] keys = new int[n];
+			for (int i = 0; i < n; i++)
+				keys[i] = 2 * i;
+			return keys;
+		}
+
+		@Override
+		int[] accesses(int n, int count, Random random) {
+			int[] keys = new int[count];
+			for (int i = 0; i < count; i++)
+				keys[i] = 2 * (i % n);
+			return keys;
+		}
+	},
+
+	/**
+	 * uniformly random keys
+	 */
+	RANDOM {
+		@Override
+		int[] insertOrder(int n, Random random) {
+			int[] keys = SEQUENTIAL.insertOrder(n, random);
+			shuffle(keys, 0, n, random);
+			return keys;
+		}
+
+		@Override
+		int[] accesses(int n, int count, Random random) {
+			int[] keys = new int[count];
+			for (int i = 0; i < count; i++)
+				keys[i] = 2 * random.nextInt(n);
+			return keys;
+		}
+	},
+
+	/**
+	 * skewed accesses, the i'th most popular key is accessed with a probability
+	 * proportional to 1 / i^0.99 like in YCSB. popular keys are spread over the
+	 * key range instead of being the smallest ones
+	 */
+	ZIPFIAN {
+		private static final double THETA = 0.99;
+
+		@Override
+		int[] insertOrder(int n, Random random) {
+			return RANDOM.insertOrder(n, random);
+		}
+
+		@Override
+		int[] accesses(int n, int count, Random random) {
+			double zetaN = 0;
+			for (int i = 1; i <= n; i++)
+				zetaN += 1 / Math.pow(i, THETA);
+			double zeta2 = 1 + 1 / Math.pow(2, THETA);
+			double alpha = 1 / (1 - THETA);
+			double eta = (1 - Math.pow(2.0 / n, 1 - THETA)) / (1 - zeta2 / zetaN);
+
+			int[] popularity = RANDOM.insertOrder(n, random);
+			int[] keys = new int[count];
+			for (int i = 0; i < count; i++) {
+				double u = random.nextDouble();
+				double uz = u * zetaN;
+				int rank;
+				if (uz < 1)
+					rank = 0;
+				else if (uz < zeta2)
+					rank = 1;
+				else
+					rank = Math.min(n - 1, (int) (n * Math.pow(eta * u - eta + 1, alpha)));
+				keys[i] = popularity[rank];
+			}
+			return keys;
+		}
+	},
+
+	/**
+	 * keys that move through the key range like timestamps, each one close to
+	 * the previous ones but not in order
+	 */
+	SLIDING_WINDOW {
+		private static final int WINDOW = 1024;
+
+		@Override
+		int[] insertOrder(int n, Random random) {
+			int[] keys = SEQUENTIAL.insertOrder(n, random);
+			for (int from = 0; from < n; from += WINDOW)
+				shuffle(keys, from, Math.min(n, from + WINDOW), random);
+			return keys;
+		}
+
+		@Override
+		int[] accesses(int n, int count, Random random) {
+			int[] keys = new int[count];
+			for (int i = 0; i < count; i++) {
+				long position = (long) i * n / count;
+				keys[i] = 2 * (int) ((position + random.nextInt(Math.min(n, WINDOW))) % n);
+			}
+			return keys;
+		}
+	};
+
+	/**
+	 * returns the keys of a tree of size n in the order they are inserted
+	 */
+	abstract int[] insertOrder(int n, Random random);
+
+	/**
+	 * returns count keys of a tree of size n, in the order they are accessed
+	 */
+	abstract int[] accesses(int n, int count, Random random);
+
+	private static void shuffle(int[] keys, int from, int to, Random random) {
+		for (int i = to - 1; i > from; i--) {
+			int j = from + random.nextInt(i - from + 1);
+			int key = keys[i];
+			keys[i] = keys[j];
+			keys[j] = key;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package wavl.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * MixedBenchmark
+ *
+ * A read mostly workload: 90% searches, 5% inserts and 5% deletes. An insert
+ * adds the odd key next to its access, which is never in the map, and the
+ * delete 10 operations later removes that same key again. So every insert and
+ * every delete changes the map, and its size stays within one of the workload
+ * size. The map is filled again before every iteration.
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MixedBenchmark {
+	@Param({ "WAVL", "ARRAY_WAVL", "AVL", "TREE_MAP", "SKIP_LIST" })
+	public OrderedIntMap.Implementation implementation;
+
+	private OrderedIntMap _map;
+	private int _cursor;
+
+	@Setup(Level.Iteration)
+	public void setup(Workload workload) {
+		this._map = workload.filled(this.implementation);
+		this._cursor = 0;
+	}
+
+	@Benchmark
+	public Object operation(Workload workload) {
+		int cursor = this._cursor++;
+		int mask = Workload.ACCESSES - 1;
+		switch (cursor % 20) {
+		case 0:
+			return this._map.insert(workload.accesses[cursor & mask] + 1, Workload.VALUE);
+		case 10:
+			// the key inserted by case 0 of this round
+			return this._map.delete(workload.accesses[(cursor - 10) & mask] + 1);
+		default:
+			return this._map.search(workload.accesses[cursor & mask]);
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package wavl.bench;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import wavl.ArrayWAVLTree;
+import wavl.WAVLTree;
+
+/**
+ *
+ * OrderedIntMap
+ *
+ * The operations the benchmarks measure, so every implementation runs the
+ * same benchmark code. Adapters for the maps of the JDK keep a constant value
+ * and use putIfAbsent, so they do the same work as WAVLTree.insert.
+ *
+ */
+
+public interface OrderedIntMap {
+	/**
+	 * returns false if key was already in the map
+	 */
+	boolean insert(int key, String value);
+
+	/**
+	 * returns false if key was not in the map
+	 */
+	boolean delete(int key);
+
+	String search(int key);
+
+	/**
+	 * returns the value of the i'th smallest key, counting from 1
+	 */
+	String select(int i);
+
+	int[] keysToArray();
+
+	int size();
+
+	/**
+	 * the implementations a benchmark can run against
+	 */
+	enum Implementation {
+		WAVL {
+			@Override
+			OrderedIntMap create() {
+				return new WAVLTreeAdapter(new WAVLTree());
+			}
+		},
+		ARRAY_WAVL {
+			@Override
+			OrderedIntMap create() {
+				return new ArrayWAVLTreeAdapter(new ArrayWAVLTree());
+			}
+		},
+		AVL {
+			@Override
+			OrderedIntMap create() {
+				return new AVLTreeAdapter(new AVLTree());
+			}
+		},
+		TREE_MAP {
+			@Override
+			OrderedIntMap create() {
+				return new JdkMapAdapter(new TreeMap<>());
+			}
+		},
+		SKIP_LIST {
+			@Override
+			OrderedIntMap create() {
+				return new JdkMapAdapter(new ConcurrentSkipListMap<>());
+			}
+		};
+
+		abstract OrderedIntMap create();
+	}
+
+	final class WAVLTreeAdapter implements OrderedIntMap {
+		private final WAVLTree _tree;
+
+		WAVLTreeAdapter(WAVLTree tree) {
+			this._tree = tree;
+		}
+
+		@Override
+		public boolean insert(int key, String value) {
+			return this._tree.insert(key, value) != -1;
+		}
+
+		@Override
+		public boolean delete(int key) {
+			return this._tree.delete(key) != -1;
+		}
+
+		@Override
+		public String search(int key) {
+			return this._tree.search(key);
+		}
+
+		@Override
+		public String select(int i) {
+			return this._tree.select(i);
+		}
+
+		@Override
+		public int[] keysToArray() {
+			return this._tree.keysToArray();
+		}
+
+		@Override
+		public int size() {
+			return this._tree.size();
+		}
+	}
+
+	final class ArrayWAVLTreeAdapter implements OrderedIntMap {
+		private final ArrayWAVLTree _tree;
+
+		ArrayWAVLTreeAdapter(ArrayWAVLTree tree) {
+			this._tree = tree;
+		}
+
+		@Override
+		public boolean insert(int key, String value) {
+			return this._tree.insert(key, value) != -1;
+		}
+
+		@Override
+		public boolean delete(int key) {
+			return this._tree.delete(key) != -1;
+		}
+
+		@Override
+		public String search(int key) {
+			return this._tree.search(key);
+		}
+
+		@Override
+		public String select(int i) {
+			return this._tree.select(i);
+		}
+
+		@Override
+		public int[] keysToArray() {
+			return this._tree.keysToArray();
+		}
+
+		@Override
+		public int size() {
+			return this._tree.size();
+		}
+	}
+
+	final class AVLTreeAdapter implements OrderedIntMap {
+		private final AVLTree _tree;
+
+		AVLTreeAdapter(AVLTree tree) {
+			this._tree = tree;
+		}
+
+		@Override
+		public boolean insert(int key, String value) {
+			return this._tree.insert(key, value);
+		}
+
+		@Override
+		public boolean delete(int key) {
+			return this._tree.delete(key);
+		}
+
+		@Override
+		public String search(int key) {
+			return this._tree.search(key);
+		}
+
+		@Override
+		public String select(int i) {
+			return this._tree.select(i);
+		}
+
+		@Override
+		public int[] keysToArray() {
+			return this._tree.keysToArray();
+		}
+
+		@Override
+		public int size() {
+			return this._tree.size();
+		}
+	}
+
+	/**
+	 * TreeMap and ConcurrentSkipListMap have no order statistics, select walks
+	 * the keys and is only there for completeness
+	 */
+	final class JdkMapAdapter implements OrderedIntMap {
+		private final NavigableMap<Integer, String> _map;
+
+		JdkMapAdapter(NavigableMap<Integer, String> map) {
+			this._map = map;
+		}
+
+		@Override
+		public boolean insert(int key, String value) {
+			return this._map.putIfAbsent(key, value) == null;
+		}
+
+		@Override
+		public boolean delete(int key) {
+			return this._map.remove(key) != null;
+		}
+
+		@Override
+		public String search(int key) {
+			return this._map.get(key);
+		}
+
+		@Override
+		public String select(int i) {
+			if (i < 1 || i > this._map.size())
+				return null;
+			for (Map.Entry<Integer, String> entry : this._map.entrySet())
+				if (--i == 0)
+					return entry.getValue();
+			return null;
+		}
+
+		@Override
+		public int[] keysToArray() {
+			int[] keys = new int[this._map.size()];
+			int index = 0;
+			for (int key : this._map.keySet())
+				keys[index++] = key;
+			return keys;
+		}
+
+		@Override
+		public int size() {
+			return this._map.size();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package wavl.bench;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wavl.WAVLTree;
+
+/**
+ *
+ * ParallelBenchmark
+ *
+ * The scaling of parallelUnion and parallelFromSorted with the number of
+ * threads and the grain size, next to union and fromSorted as the sequential
+ * baseline. The parallel operations run on a pool of threads threads. union
+ * takes two trees of size keys each, the even and the odd numbers, so every
+ * split of one tree falls between two keys of the other.
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class ParallelBenchmark {
+	@Param({ "2000000" })
+	public int size;
+
+	private int[] _evenKeys;
+	private int[] _oddKeys;
+	private String[] _values;
+
+	/**
+	 * the pool the parallel operations run on, a state of its own so that the
+	 * sequential baselines are not run once for every threads and grainSize
+	 */
+	@State(Scope.Thread)
+	public static class Pool {
+		@Param({ "1", "2", "4", "8" })
+		public int threads;
+
+		@Param({ "2048", "8192", "32768" })
+		public int grainSize;
+
+		private ForkJoinPool _pool;
+
+		@Setup
+		public void setup() {
+			this._pool = new ForkJoinPool(this.threads);
+		}
+
+		@TearDown
+		public void tearDown() {
+			this._pool.shutdown();
+		}
+
+		WAVLTree invoke(Supplier<WAVLTree> operation) {
+			return this._pool.invoke(new Call(operation));
+		}
+	}
+
+	/**
+	 * the inputs of union. the set operations empty their inputs, so every call
+	 * gets new ones
+	 */
+	@State(Scope.Thread)
+	public static class Inputs {
+		private WAVLTree _a;
+		private WAVLTree _b;
+
+		@Setup(Level.Invocation)
+		public void fill(ParallelBenchmark benchmark) {
+			this._a = WAVLTree.fromSorted(benchmark._evenKeys, benchmark._values);
+			this._b = WAVLTree.fromSorted(benchmark._oddKeys, benchmark._values);
+		}
+	}
+
+	@Setup
+	public void setup() {
+		this._evenKeys = new int[this.size];
+		this._oddKeys = new int[this.size];
+		this._values = new String[this.size];
+		for (int i = 0; i < this.size; i++) {
+			this._evenKeys[i] = 2 * i;
+			this._oddKeys[i] = 2 * i + 1;
+			this._values[i] = Workload.VALUE;
+		}
+	}
+
+	@Benchmark
+	public WAVLTree union(Inputs inputs) {
+		return WAVLTree.union(inputs._a, inputs._b);
+	}
+
+	@Benchmark
+	public WAVLTree parallelUnion(Inputs inputs, Pool pool) {
+		return pool.invoke(() -> WAVLTree.parallelUnion(inputs._a, inputs._b, pool.grainSize));
+	}
+
+	@Benchmark
+	public WAVLTree fromSorted() {
+		return WAVLTree.fromSorted(this._evenKeys, this._values);
+	}
+
+	@Benchmark
+	public WAVLTree parallelFromSorted(Pool pool) {
+		return pool.invoke(() -> WAVLTree.parallelFromSorted(this._evenKeys, this._values, pool.grainSize));
+	}
+
+	/**
+	 * runs an operation inside a pool, so that its tasks fork there and not on
+	 * the common pool
+	 */
+	private static final class Call extends RecursiveTask<WAVLTree> {
+		private static final long serialVersionUID = 1L;
+
+		private final Supplier<WAVLTree> _operation;
+
+		Call(Supplier<WAVLTree> operation) {
+			this._operation = operation;
+		}
+
+		@Override
+		protected WAVLTree compute() {
+			return this._operation.get();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package wavl.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * QueryBenchmark
+ *
+ * Read only operations on a map filled once per trial. search looks up the
+ * accesses of the workload one at a time, searchMissing looks up odd keys,
+ * which are never in the map.
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class QueryBenchmark {
+	@Param({ "WAVL", "ARRAY_WAVL", "AVL", "TREE_MAP", "SKIP_LIST" })
+	public OrderedIntMap.Implementation implementation;
+
+	private OrderedIntMap _map;
+	private int _cursor;
+
+	@Setup
+	public void setup(Workload workload) {
+		this._map = workload.filled(this.implementation);
+	}
+
+	@Benchmark
+	public String search(Workload workload) {
+		int key = workload.accesses[this._cursor++ & (Workload.ACCESSES - 1)];
+		return this._map.search(key);
+	}
+
+	@Benchmark
+	public String searchMissing(Workload workload) {
+		int key = workload.accesses[this._cursor++ & (Workload.ACCESSES - 1)];
+		return this._map.search(key + 1);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public int[] keysToArray() {
+		return this._map.keysToArray();
+	}
+}
@@ -0,0 +1,53 @@
+package wavl.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * SelectBenchmark
+ *
+ * Order statistics on a map filled once per trial. The maps of the JDK are
+ * left out, they have no select and walking the keys is O(n).
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SelectBenchmark {
+	@Param({ "WAVL", "ARRAY_WAVL", "AVL" })
+	public OrderedIntMap.Implementation implementation;
+
+	private OrderedIntMap _map;
+	private int _cursor;
+
+	@Setup
+	public void setup(Workload workload) {
+		this._map = workload.filled(this.implementation);
+	}
+
+	/**
+	 * selects the rank of the next access, so the ranks follow the distribution
+	 * of the workload
+	 */
+	@Benchmark
+	public String select(Workload workload) {
+		int key = workload.accesses[this._cursor++ & (Workload.ACCESSES - 1)];
+		return this._map.select(key / 2 + 1);
+	}
+}
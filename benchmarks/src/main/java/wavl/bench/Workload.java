@@ -0,0 +1,58 @@
+package wavl.bench;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ *
+ * Workload
+ *
+ * The keys of one benchmark run, shared by the benchmark states. The seed is
+ * fixed, so every implementation sees the same keys in the same order.
+ *
+ */
+
+@State(Scope.Thread)
+public class Workload {
+	/**
+	 * number of accesses generated up front, a power of two so that a cursor can
+	 * wrap around with a mask
+	 */
+	static final int ACCESSES = 1 << 20;
+
+	/**
+	 * the value of every key, shared so that the benchmarks do not measure value
+	 * allocation
+	 */
+	static final String VALUE = "value";
+
+	@Param({ "10000", "1000000" })
+	public int size;
+
+	@Param({ "SEQUENTIAL", "RANDOM", "ZIPFIAN", "SLIDING_WINDOW" })
+	public KeyDistribution distribution;
+
+	int[] keys;
+	int[] accesses;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		this.keys = this.distribution.insertOrder(this.size, random);
+		this.accesses = this.distribution.accesses(this.size, ACCESSES, random);
+	}
+
+	/**
+	 * returns a map of the implementation filled with all keys
+	 */
+	OrderedIntMap filled(OrderedIntMap.Implementation implementation) {
+		OrderedIntMap map = implementation.create();
+		for (int key : this.keys)
+			map.insert(key, VALUE);
+		return map;
+	}
+}
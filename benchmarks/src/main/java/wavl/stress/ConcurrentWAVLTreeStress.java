@@ -0,0 +1,355 @@
+package wavl.stress;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import wavl.ConcurrentWAVLTree;
+
+/**
+ *
+ * ConcurrentWAVLTreeStress
+ *
+ * A linearizability stress test of ConcurrentWAVLTree. Every round fills a
+ * fresh tree with fixed base keys, lets a few threads run random operations
+ * on it at the same time and records when each call started and returned and
+ * what it returned. The history is then checked against a sequential model
+ * of the tree with the search of Wing and Gong: it is linearizable if the
+ * operations can be put in an order that respects their real time order, in
+ * which every result is the one the model returns.
+ *
+ * The operations are insert, delete and search of a few contended keys, and
+ * the reads that walk the tree optimistically or look at several keys: select,
+ * min, max, successor and size. The contended keys lie below and above the
+ * base keys, so inserting and deleting them changes min, max and select and
+ * rotates the paths the optimistic walks take.
+ *
+ *     java -cp benchmarks/target/benchmarks.jar wavl.stress.ConcurrentWAVLTreeStress [rounds] [threads] [operations]
+ *
+ * runs rounds rounds of threads threads with operations operations each, and
+ * exits with status 1 and prints the history of the first round that is not
+ * linearizable.
+ *
+ */
+
+public class ConcurrentWAVLTreeStress {
+	private static final int[] KEYS = { 0, 1, 2, 3, 1000, 1001, 1002, 1003 };
+	private static final int BASE_FIRST = 100;
+	private static final int BASE_STEP = 8;
+	private static final int BASE_COUNT = 100;
+	private static final int[] SUCCESSOR_OF = { -1, 1, 3, 500, 999, 1001, 1003 };
+
+	private static final int INSERT = 0;
+	private static final int DELETE = 1;
+	private static final int SEARCH = 2;
+	private static final int SELECT = 3;
+	private static final int MIN = 4;
+	private static final int MAX = 5;
+	private static final int SUCCESSOR = 6;
+	private static final int SIZE = 7;
+	private static final String[] NAMES = { "insert", "delete", "search", "select", "min", "max", "successor",
+			"size" };
+
+	/**
+	 * one call: what it did, with which argument, what it returned and when.
+	 * results are encoded as ints, see encode
+	 */
+	private static final class Operation {
+		final int _thread;
+		final int _type;
+		final int _argument;
+		final int _value;
+		int _result;
+		long _call;
+		long _return;
+
+		Operation(int thread, int type, int argument, int value) {
+			this._thread = thread;
+			this._type = type;
+			this._argument = argument;
+			this._value = value;
+		}
+
+		@Override
+		public String toString() {
+			return "thread " + this._thread + " " + NAMES[this._type] + "(" + this._argument
+					+ (this._type == INSERT ? ", v" + this._value : "") + ") = " + this._result + " ["
+					+ this._call + ", " + this._return + "]";
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int operations = args.length > 2 ? Integer.parseInt(args[2]) : 25;
+
+		Random random = new Random(42);
+		long checked = 0;
+		for (int round = 0; round < rounds; round++) {
+			List<Operation> history = runRound(threads, operations, random.nextLong());
+			if (!new Checker(history).linearizable()) {
+				System.out.println("round " + round + " is not linearizable:");
+				history.sort((a, b) -> Long.compare(a._call, b._call));
+				for (Operation operation : history)
+					System.out.println("  " + operation);
+				System.exit(1);
+			}
+			checked += history.size();
+		}
+		System.out.println(rounds + " rounds, " + checked + " operations, all linearizable");
+	}
+
+	/**
+	 * runs one round on a fresh tree and returns the history of all threads
+	 */
+
+	private static List<Operation> runRound(int threads, int operations, long seed) throws InterruptedException {
+		ConcurrentWAVLTree tree = new ConcurrentWAVLTree();
+		for (int i = 0; i < BASE_COUNT; i++) {
+			int key = BASE_FIRST + i * BASE_STEP;
+			tree.insert(key, "b" + key);
+		}
+
+		Operation[][] histories = new Operation[threads][];
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			Operation[] history = plan(t, operations, new Random(seed + t));
+			histories[t] = history;
+			workers[t] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (Operation operation : history)
+					run(tree, operation);
+			});
+			workers[t].start();
+		}
+		start.countDown();
+		for (Thread worker : workers)
+			worker.join();
+
+		List<Operation> all = new ArrayList<>();
+		for (Operation[] history : histories)
+			all.addAll(Arrays.asList(history));
+		return all;
+	}
+
+	/**
+	 * chooses the operations of a thread up front, so the threads do nothing
+	 * between their calls but record the time. inserts use values no other
+	 * insert uses, so a read tells which insert it saw
+	 */
+
+	private static Operation[] plan(int thread, int operations, Random random) {
+		Operation[] history = new Operation[operations];
+		for (int i = 0; i < operations; i++) {
+			int choice = random.nextInt(16);
+			int key = KEYS[random.nextInt(KEYS.length)];
+			int value = thread * operations + i + 1;
+			if (choice < 4)
+				history[i] = new Operation(thread, INSERT, key, value);
+			else if (choice < 7)
+				history[i] = new Operation(thread, DELETE, key, 0);
+			else if (choice < 10)
+				history[i] = new Operation(thread, SEARCH, key, 0);
+			else if (choice < 11)
+				history[i] = new Operation(thread, SELECT, 1 + random.nextInt(BASE_COUNT + KEYS.length + 1), 0);
+			else if (choice < 12)
+				history[i] = new Operation(thread, MIN, 0, 0);
+			else if (choice < 13)
+				history[i] = new Operation(thread, MAX, 0, 0);
+			else if (choice < 15)
+				history[i] = new Operation(thread, SUCCESSOR, SUCCESSOR_OF[random.nextInt(SUCCESSOR_OF.length)], 0);
+			else
+				history[i] = new Operation(thread, SIZE, 0, 0);
+		}
+		return history;
+	}
+
+	private static void run(ConcurrentWAVLTree tree, Operation operation) {
+		operation._call = System.nanoTime();
+		switch (operation._type) {
+		case INSERT:
+			operation._result = tree.insert(operation._argument, "v" + operation._value) >= 0 ? 1 : 0;
+			break;
+		case DELETE:
+			operation._result = tree.delete(operation._argument) >= 0 ? 1 : 0;
+			break;
+		case SEARCH:
+			operation._result = encode(tree.search(operation._argument));
+			break;
+		case SELECT:
+			operation._result = encode(tree.select(operation._argument));
+			break;
+		case MIN:
+			operation._result = encode(tree.min());
+			break;
+		case MAX:
+			operation._result = encode(tree.max());
+			break;
+		case SUCCESSOR:
+			operation._result = encode(tree.successor(operation._argument));
+			break;
+		default:
+			operation._result = tree.size();
+			break;
+		}
+		operation._return = System.nanoTime();
+	}
+
+	/**
+	 * encodes a value read from the tree: 0 for null, the insert value for
+	 * "v<value>" and -key - 1 for the value "b<key>" of a base key
+	 */
+
+	private static int encode(String value) {
+		if (value == null)
+			return 0;
+		int number = Integer.parseInt(value.substring(1));
+		return value.charAt(0) == 'v' ? number : -number - 1;
+	}
+
+	/**
+	 *
+	 * Checker
+	 *
+	 * Searches for a linearization of a history. In every step it may take any
+	 * operation that was called before the earliest return among the operations
+	 * left, because nothing left has to come before it in real time. It applies
+	 * the operation to the model, and goes on only if the result matches. States
+	 * that were reached before with the same operations left are not searched
+	 * again.
+	 *
+	 */
+	private static final class Checker {
+		private final Operation[] _operations;
+		private final boolean[] _done;
+		private final Set<String> _seen;
+
+		Checker(List<Operation> history) {
+			this._operations = history.toArray(new Operation[0]);
+			Arrays.sort(this._operations, (a, b) -> Long.compare(a._call, b._call));
+			this._done = new boolean[this._operations.length];
+			this._seen = new HashSet<>();
+		}
+
+		boolean linearizable() {
+			return search(new int[KEYS.length], this._operations.length);
+		}
+
+		/**
+		 * state holds the insert value of each contended key, 0 if it is not in
+		 * the tree
+		 */
+
+		private boolean search(int[] state, int left) {
+			if (left == 0)
+				return true;
+			if (!this._seen.add(Arrays.toString(this._done) + Arrays.toString(state)))
+				return false;
+
+			long earliestReturn = Long.MAX_VALUE;
+			for (int i = 0; i < this._operations.length; i++)
+				if (!this._done[i])
+					earliestReturn = Math.min(earliestReturn, this._operations[i]._return);
+
+			// the operations are sorted by call, so the candidates are a prefix
+			for (int i = 0; i < this._operations.length && this._operations[i]._call <= earliestReturn; i++) {
+				if (this._done[i])
+					continue;
+				Operation operation = this._operations[i];
+				int[] next = state.clone();
+				if (apply(operation, next) != operation._result)
+					continue;
+				this._done[i] = true;
+				if (search(next, left - 1))
+					return true;
+				this._done[i] = false;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * applies operation to the model state and returns its result
+	 */
+
+	private static int apply(Operation operation, int[] state) {
+		switch (operation._type) {
+		case INSERT: {
+			int index = indexOf(operation._argument);
+			if (state[index] != 0)
+				return 0;
+			state[index] = operation._value;
+			return 1;
+		}
+		case DELETE: {
+			int index = indexOf(operation._argument);
+			if (state[index] == 0)
+				return 0;
+			state[index] = 0;
+			return 1;
+		}
+		case SEARCH:
+			return state[indexOf(operation._argument)];
+		case SIZE:
+			return contents(state).length / 2;
+		default:
+			break;
+		}
+
+		int[] contents = contents(state);
+		int items = contents.length / 2;
+		switch (operation._type) {
+		case SELECT:
+			return operation._argument <= items ? contents[2 * (operation._argument - 1) + 1] : 0;
+		case MIN:
+			return items == 0 ? 0 : contents[1];
+		case MAX:
+			return items == 0 ? 0 : contents[contents.length - 1];
+		default:
+			for (int i = 0; i < items; i++)
+				if (contents[2 * i] > operation._argument)
+					return contents[2 * i + 1];
+			return 0;
+		}
+	}
+
+	private static int indexOf(int key) {
+		for (int i = 0; i < KEYS.length; i++)
+			if (KEYS[i] == key)
+				return i;
+		throw new IllegalArgumentException("not a contended key: " + key);
+	}
+
+	/**
+	 * returns the keys of the model and their encoded values in key order, as
+	 * pairs of ints
+	 */
+
+	private static int[] contents(int[] state) {
+		int[] contents = new int[2 * (BASE_COUNT + KEYS.length)];
+		int items = 0;
+		int base = 0;
+		for (int i = 0; i <= KEYS.length; i++) {
+			int bound = i < KEYS.length ? KEYS[i] : Integer.MAX_VALUE;
+			for (; base < BASE_COUNT && BASE_FIRST + base * BASE_STEP < bound; base++) {
+				int key = BASE_FIRST + base * BASE_STEP;
+				contents[2 * items] = key;
+				contents[2 * items++ + 1] = -key - 1;
+			}
+			if (i < KEYS.length && state[i] != 0) {
+				contents[2 * items] = KEYS[i];
+				contents[2 * items++ + 1] = state[i];
+			}
+		}
+		return Arrays.copyOf(contents, 2 * items);
+	}
+}